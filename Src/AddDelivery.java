@@ -1,7 +1,5 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import javax.swing.*;
 
@@ -38,7 +36,7 @@ import javax.swing.*;
  * <p>This class depends on the following:
  * <ul>
  *   <li>{@link Main.Inventory} - A list of inventory items.</li>
- *   <li>{@link Main.DeliveryList} - A list to store delivery records.</li>
+ *   <li>{@link Main#DeliveryHistory} - Column store of delivery records.</li>
  *   <li>{@link InventoryItem} - Represents an item in the inventory.</li>
  *   <li>{@link Delivery} - Represents a delivery record.</li>
  * </ul>
@@ -46,8 +44,9 @@ import javax.swing.*;
  * <h2>File Operations:</h2>
  * <p>The class performs file operations to save delivery and inventory data:
  * <ul>
- *   <li>Delivery records are saved to "deliver.txt".</li>
- *   <li>Updated inventory data is saved to "Inventory.txt".</li>
+ *   <li>Deliveries are saved through {@code StockService}: the change is logged to "inventory.wal"
+ *       and the delivery is appended to the "Delivery.txt" journal.</li>
+ *   <li>The inventory snapshot "inventory.bin" is updated at the next checkpoint.</li>
  * </ul>
  * 
  * <h2>Event Handling:</h2>
@@ -141,51 +140,6 @@ public class AddDelivery extends JFrame{
         setVisible(true); // Show the frame
     } 
 
-    /**
-     *Saves the deliveres to the deliver.txt file.
-     */
-    private void saveDeliveriesToFile() {
-        //try with resources to auto close printwriter
-        try (PrintWriter out = new PrintWriter("deliver.txt")) {
-            for (Order order : Main.OrderList) {
-                out.println(order.toString());
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     *Saves the updated inventory to the Inventory.txt file.
-     */
-    private void saveUpdatedInvToFile() {
-        //try with resources to auto close printwriter
-        try (PrintWriter out = new PrintWriter("Inventory.txt")) {
-            for (InventoryItem item : Main.Inventory) {
-                out.println(item.getId() + " " + item.getName() + " " + item.getQuantity());
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     *Updates the inventory based on the deliveries recieved, and saves the updated 
-     inventory to Inventory.txt file using {@code UpdInv}.
-     */
-    private void UpdInv(Delivery Delivery){  
-        for(InventoryItem item : Main.Inventory){
-            String itemName = item.getName();
-            String DeliveryItemName = Delivery.getItemName();
-            if (itemName.equals(DeliveryItemName)){
-                //set the DeliveryItem quantity to the original value + the quantity on delivery
-                //increases since Delivery = company stock inventory increases
-                item.setQuantity(item.getQuantity()+ Delivery.getQuantity());
-            }
-        }
-        saveUpdatedInvToFile();
-    }
-
     private class CancelDeliveryListener implements ActionListener{
         public void actionPerformed(ActionEvent e){
             setVisible(false);
@@ -202,14 +156,24 @@ public class AddDelivery extends JFrame{
 
             //if there is a selected item and a non zero quantity
             if (selectedItem != null && quantity > 0) { 
-                //create delivery object
-                Delivery delivery = new Delivery(selectedItem, quantity);
-                //add delivery object to arraylist
-                Main.DeliveryList.add(delivery); //WHY IS THIS RED?
-                saveDeliveriesToFile(); // Save every time
-                UpdInv(delivery);
-                JOptionPane.showMessageDialog(thisDelivery, "Delivery saved!");
-                dispose(); // close the AddDelivery window
+                saveButton.setEnabled(false); //until this delivery is saved
+                //adds the stock, logs the change and appends the delivery to the journal,
+                //all on the background writer so the window stays responsive
+                Main.Writer.receiveDelivery(selectedItem, quantity).whenComplete((delivery, error) -> {
+                    if (delivery != null) {
+                        //add delivery to the history
+                        Main.recordDelivery(delivery);
+                    }
+                    SwingUtilities.invokeLater(() -> {
+                        saveButton.setEnabled(true);
+                        if (error != null) {
+                            JOptionPane.showMessageDialog(thisDelivery, "The delivery could not be saved: " + error.getCause().getMessage());
+                        } else {
+                            JOptionPane.showMessageDialog(thisDelivery, "Delivery saved!");
+                            dispose(); // close the AddDelivery window
+                        }
+                    });
+                });
             } else {
                 JOptionPane.showMessageDialog(thisDelivery, "Please select a valid item and quantity.");
             }
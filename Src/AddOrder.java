@@ -1,7 +1,5 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import javax.swing.*;
 
@@ -9,13 +7,15 @@ import javax.swing.*;
  * The  {@code AddOrder} class provides a graphical user interface (GUI) for adding orders
  * to the order log and updating the inventory accordingly. It allows users to 
  * select an item from a dropdown menu, specify the quantity using a spinner, 
- * and save the order. The inventory is updated to reflect the ordered quantity, 
+ * collect several lines into a basket, and save the order. The inventory is updated to reflect the ordered quantity, 
  * and the changes are saved to files.
  * 
  * <p>Features of this class include:
  * <ul>
  *   <li>Dropdown menu for selecting items from the inventory.</li>
  *   <li>Spinner for specifying the quantity of the selected item.</li>
+ *   <li>A basket of order lines, filled with "Add to basket" and trimmed with "Remove line";
+ *       adding an item already in the basket adds to its quantity.</li>
  *   <li>Buttons for saving the order or canceling the operation.</li>
  *   <li>Automatic updates to the inventory and order log files.</li>
  * </ul>
@@ -23,14 +23,17 @@ import javax.swing.*;
  * <p>Dependencies:
  * <ul>
  *   <li>Relies on the {@code Main.Inventory} list for inventory data.</li>
- *   <li>Relies on the {@code Main.OrderList} list for storing orders.</li>
+ *   <li>Relies on the {@code Main.OrderHistory} column store for storing orders.</li>
  *   <li>Uses {@code InventoryItem} and {@code Order} classes for managing inventory and orders.</li>
  * </ul>
  * 
  * <p>File Operations:
  * <ul>
- *   <li>Orders are saved to "orders.txt".</li>
- *   <li>Updated inventory is saved to "Inventory.txt".</li>
+ *   <li>Orders are saved through {@code StockService} on the background {@code PersistenceWriter}:
+ *       the change is logged to "inventory.wal" and the order is appended to the "orders.txt" journal.</li>
+ *   <li>A basket is saved all or nothing: every line is taken from stock, logged and journaled
+ *       in one write, one order per line, or none is if any line is short.</li>
+ *   <li>The inventory snapshot "inventory.bin" is updated at the next checkpoint.</li>
  * </ul>
  * 
  * <p>Color Scheme:
@@ -43,11 +46,14 @@ import javax.swing.*;
  * <ol>
  *   <li>Create an instance of the {@code AddOrder} class to display the GUI.</li>
  *   <li>Select an item and specify the quantity.</li>
- *   <li>Click "Save" to save the order and update the inventory, or "Cancel" to close the window.</li>
+ *   <li>Optionally click "Add to basket" and repeat for more items.</li>
+ *   <li>Click "Save" to save the basket (or just the selected item if the basket is empty) and
+ *       update the inventory, or "Cancel" to close the window.</li>
  * </ol>
  * 
  * <p>Note: The class ensures that the ordered quantity does not exceed the available stock.
- * If the stock is insufficient, an error message is displayed.
+ * If the stock is insufficient, an error message listing the stock of each line is displayed
+ * and nothing is saved.
  * 
  */
 
@@ -63,6 +69,9 @@ public class AddOrder extends JFrame{
     private JComboBox<String> itemDropDown;
     private JLabel quantityLabel;
     private JSpinner quantitySpinner;
+    private JButton addLineButton;
+    private JButton removeLineButton;
+    private JList<String> basketList;
     private JButton saveButton;
     private JButton cancelButton;
 
@@ -72,6 +81,10 @@ public class AddOrder extends JFrame{
 
     private AddOrder thisOrder;
     private ArrayList<InventoryItem> IList;
+    //basket lines, shown as "name x quantity" in basketList
+    private final ArrayList<String> basketItems = new ArrayList<>();
+    private final ArrayList<Integer> basketQuantities = new ArrayList<>();
+    private final DefaultListModel<String> basketModel = new DefaultListModel<>();
 
     public AddOrder(){
         thisOrder = this;
@@ -108,6 +121,23 @@ public class AddOrder extends JFrame{
         display.add(quantityLabel);
         display.add(quantitySpinner);
 
+        addLineButton = new JButton("Add to basket");
+        addLineButton.setBackground(lightCoral);
+        addLineButton.setForeground(Color.WHITE);
+        addLineButton.addActionListener(new AddLineListener());
+        display.add(addLineButton);
+
+        basketList = new JList<>(basketModel);
+        basketList.setForeground(roseRed);
+        JScrollPane basketPane = new JScrollPane(basketList);
+        basketPane.setBorder(BorderFactory.createTitledBorder("Basket"));
+        basketPane.setBackground(softPink);
+
+        removeLineButton = new JButton("Remove line");
+        removeLineButton.setBackground(roseRed);
+        removeLineButton.setForeground(Color.WHITE);
+        removeLineButton.addActionListener(new RemoveLineListener());
+
         saveButton = new JButton("Save");
         cancelButton = new JButton("Cancel");
 
@@ -121,96 +151,126 @@ public class AddOrder extends JFrame{
         saveButton.addActionListener(new SaveOrderListener());
         cancelButton.addActionListener(new CancelOrderListener());
 
+        mainMenuPanel.add(removeLineButton);
         mainMenuPanel.add(saveButton);
         mainMenuPanel.add(cancelButton);
 
-        add(display, BorderLayout.CENTER);
+        add(display, BorderLayout.NORTH);
+        add(basketPane, BorderLayout.CENTER);
         add(mainMenuPanel, BorderLayout.SOUTH);
         setVisible(true); // Show the frame
     } 
 
-    /**
-     * Method that saves the orders to the orders.txt file.
-     */
-    private void saveOrdersToFile() {
-        //try with resources to auto close printwriter
-        try (PrintWriter out = new PrintWriter("orders.txt")) {
-            for (Order order : Main.OrderList) {
-                out.println(order.toString());
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private class CancelOrderListener implements ActionListener{
+        public void actionPerformed(ActionEvent e){
+            setVisible(false);
         }
     }
 
-    /**
-     * Method that saves the inventory that was updated using {@code UpdInv} to the Inventory.txt file.
-     */
-    private void saveUpdatedInvToFile() {
-        //try with resources to auto close printwriter
-        try (PrintWriter out = new PrintWriter("Inventory.txt")) {
-            for (InventoryItem item : Main.Inventory) {
-                out.println(item.getId() + " " + item.getName() + " " + item.getQuantity());
+    private class AddLineListener implements ActionListener{
+        public void actionPerformed(ActionEvent e){
+            String selectedItem = (String) itemDropDown.getSelectedItem();
+            int quantity = (int) quantitySpinner.getValue();
+            if (selectedItem == null || quantity <= 0) {
+                JOptionPane.showMessageDialog(thisOrder, "Please select a valid item and quantity.");
+                return;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Method that updates the inventory based on the orders recieved.
-     */
-    private void UpdInv(Order order){
-        for(InventoryItem item : Main.Inventory){
-            String itemName = item.getName();
-            String orderItemName = order.getItemName();
-            if (itemName.equals(orderItemName)){
-                //set the item quantity to the original value - the quantity on order
-                //decreases since order = someone buying from us
-                item.setQuantity(item.getQuantity()-order.getQuantity());
+            //one line per item, so the same item twice adds up
+            int line = basketItems.indexOf(selectedItem);
+            if (line >= 0) {
+                basketQuantities.set(line, basketQuantities.get(line) + quantity);
+                basketModel.set(line, selectedItem + " x " + basketQuantities.get(line));
+            } else {
+                basketItems.add(selectedItem);
+                basketQuantities.add(quantity);
+                basketModel.addElement(selectedItem + " x " + quantity);
             }
         }
-        saveUpdatedInvToFile();
     }
 
-    private class CancelOrderListener implements ActionListener{
+    private class RemoveLineListener implements ActionListener{
         public void actionPerformed(ActionEvent e){
-            setVisible(false);
+            int line = basketList.getSelectedIndex();
+            if (line >= 0) {
+                basketItems.remove(line);
+                basketQuantities.remove(line);
+                basketModel.remove(line);
+            }
         }
     }
 
     private class SaveOrderListener implements ActionListener{
         public void actionPerformed(ActionEvent e){
+            if (!basketItems.isEmpty()) {
+                saveBasket(basketItems.toArray(new String[0]),
+                        basketQuantities.stream().mapToInt(Integer::intValue).toArray());
+                return;
+            }
             //pull selected item from the drop down
             String selectedItem = (String) itemDropDown.getSelectedItem();
             //pull quantity from the spinner
             int quantity = (int) quantitySpinner.getValue();
-            int checkQuantity =0;
             //if there is a selected item and a non zero quantity
-            for(InventoryItem item : Main.Inventory){
-                if (item.getName().equals(selectedItem)){
-                    checkQuantity = item.getQuantity();
-                    break;
-                } 
+            if (selectedItem != null && quantity > 0) { 
+                saveButton.setEnabled(false); //until this order is saved
+                //takes the stock atomically, logs the change and appends the order to the journal,
+                //all on the background writer so the window stays responsive
+                Main.Writer.placeOrder(selectedItem, quantity).whenComplete((order, error) -> {
+                    if (order != null) {
+                        //add order to the history
+                        Main.recordOrder(order);
+                    }
+                    SwingUtilities.invokeLater(() -> {
+                        saveButton.setEnabled(true);
+                        if (error != null) {
+                            JOptionPane.showMessageDialog(thisOrder, "The order could not be saved: " + error.getCause().getMessage());
+                        } else if (order != null) {
+                            JOptionPane.showMessageDialog(thisOrder, "Order saved!");
+                            dispose(); // close the AddOrder window
+                        } else {
+                            int checkQuantity = Main.Stock.getQuantity(Main.Stock.indexOf(selectedItem));
+                            JOptionPane.showMessageDialog(thisOrder, "We currently only have " + checkQuantity + " in stock");
+                        }
+                    });
+                });
+            } else {
+                JOptionPane.showMessageDialog(thisOrder, "Please select a valid item and quantity.");
             }
+        }
 
-            if (checkQuantity >= quantity){
-                if (selectedItem != null && quantity > 0) { 
-                    //if(quantity<=)
-                    //create order object
-                    Order order = new Order(selectedItem, quantity);
-                    //add order object to arraylist
-                    Main.OrderList.add(order);
-                    saveOrdersToFile(); // Save every time
-                    UpdInv(order);
-                    JOptionPane.showMessageDialog(thisOrder, "Order saved!");
-                    dispose(); // close the AddOrder window
-                } else {
-                    JOptionPane.showMessageDialog(thisOrder, "Please select a valid item and quantity.");
+        /**
+         * Saves every line of the basket in one write, or none of them if any is short of stock.
+         */
+        private void saveBasket(String[] items, int[] quantities) {
+            saveButton.setEnabled(false); //until this basket is saved
+            Main.Writer.placeBasket(items, quantities).whenComplete((orders, error) -> {
+                if (orders != null) {
+                    for (Order order : orders) {
+                        Main.recordOrder(order);
+                    }
                 }
-            } else {
-                JOptionPane.showMessageDialog(thisOrder, "We currently only have " + checkQuantity + "in stock");
+                SwingUtilities.invokeLater(() -> {
+                    saveButton.setEnabled(true);
+                    if (error != null) {
+                        JOptionPane.showMessageDialog(thisOrder, "The order could not be saved: " + error.getCause().getMessage());
+                    } else if (orders != null) {
+                        JOptionPane.showMessageDialog(thisOrder, "Order of " + orders.size() + " lines saved!");
+                        dispose(); // close the AddOrder window
+                    } else {
+                        JOptionPane.showMessageDialog(thisOrder, shortMessage(items, quantities));
+                    }
+                });
+            });
+        }
+
+        private String shortMessage(String[] items, int[] quantities) {
+            StringBuilder message = new StringBuilder("Nothing was ordered, not every line is in stock:");
+            for (int i = 0; i < items.length; i++) {
+                int inStock = Main.Stock.getQuantity(Main.Stock.indexOf(items[i]));
+                message.append("\n").append(items[i]).append(": ordered ").append(quantities[i])
+                        .append(", we currently only have ").append(inStock);
             }
+            return message.toString();
         }
     }
  
@@ -0,0 +1,191 @@
+import java.awt.*;
+import java.awt.event.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * The AnalyticsPanel class shows sales per item over recent time windows: the last
+ * 15 minutes, hour, day, week and 30 days, with deliveries over the last day and week
+ * and the all-time totals alongside.
+ *
+ * <p>This class includes:
+ * <ul>
+ *   <li>A table read from {@code Main.OrderStats}, {@code Main.DeliveryStats} and
+ *       {@code Main.Totals}, so no history is scanned to fill it.</li>
+ *   <li>A timer that refreshes the figures every few seconds while the window is open. The
+ *       figures are summed on a background thread, one pass per window for the whole
+ *       catalogue, and only handed to the table on the event dispatch thread.</li>
+ *   <li>Refresh and Close buttons.</li>
+ * </ul>
+ * </p>
+ */
+public class AnalyticsPanel extends JFrame {
+
+    private static final int REFRESH_MILLIS = 5000;
+
+    private static final String[] COLUMN_NAMES = {"Item", "Sold 15 min", "Sold 1 h", "Sold 24 h",
+            "Sold 7 d", "Sold 30 d", "Delivered 24 h", "Delivered 7 d", "Sold total", "Orders total"};
+    private static final long[] SOLD_WINDOWS = {15 * SalesAnalytics.MINUTE, SalesAnalytics.HOUR,
+            SalesAnalytics.DAY, 7 * SalesAnalytics.DAY, 30 * SalesAnalytics.DAY};
+    private static final long[] DELIVERED_WINDOWS = {SalesAnalytics.DAY, 7 * SalesAnalytics.DAY};
+
+    private JPanel display;
+    private JButton refresh;
+    private JButton close;
+    private JTable table;
+    private AnalyticsModel model;
+    private Timer timer;
+
+    /**
+     * Constructs the GUI for the Analytics Frame.
+     */
+    public AnalyticsPanel() {
+        setTitle("Sales Analytics");
+        setSize(900, 400);
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+            }
+        });
+
+        Color lightCyan = new Color(224, 255, 255);
+        Color mediumCyan = new Color(0, 206, 209);
+
+        display = new JPanel();
+        display.setBackground(lightCyan);
+        refresh = new JButton("Refresh");
+        close = new JButton("Close");
+        refresh.setBackground(mediumCyan);
+        refresh.setForeground(Color.WHITE);
+        close.setBackground(mediumCyan);
+        close.setForeground(Color.WHITE);
+        refresh.addActionListener(e -> model.refresh());
+        close.addActionListener(e -> dispose());
+        display.add(refresh);
+        display.add(close);
+
+        model = new AnalyticsModel();
+        table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.setFillsViewportHeight(true);
+
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        add(display, BorderLayout.SOUTH);
+
+        timer = new Timer(REFRESH_MILLIS, e -> model.refresh());
+        timer.start();
+        setVisible(true);
+    }
+
+    /**
+     * Table of the figures for every item, computed when the model is refreshed.
+     */
+    private static class AnalyticsModel extends AbstractTableModel {
+        private int[] itemIds = new int[0];
+        private long[][] values = new long[0][];
+        private boolean refreshing; //only touched on the event dispatch thread
+
+        AnalyticsModel() {
+            refresh();
+        }
+
+        /**
+         * Recomputes the figures off the event dispatch thread. A refresh asked for while one
+         * is still running is dropped, the running one is about to show current figures.
+         */
+        void refresh() {
+            if (refreshing) {
+                return;
+            }
+            refreshing = true;
+            new SwingWorker<Object[], Void>() {
+                @Override
+                protected Object[] doInBackground() {
+                    return compute();
+                }
+
+                @Override
+                protected void done() {
+                    refreshing = false;
+                    try {
+                        Object[] result = get();
+                        itemIds = (int[]) result[0];
+                        values = (long[][]) result[1];
+                        fireTableDataChanged();
+                    } catch (InterruptedException | ExecutionException e) {
+                        Metrics.error("analytics", e);
+                    }
+                }
+            }.execute();
+        }
+
+        /**
+         * The ids of the items in stock and a row of figures for each.
+         */
+        private static Object[] compute() {
+            InventoryStore store = Main.Stock;
+            long now = System.currentTimeMillis();
+            int size = store.size();
+            //one column per window for the whole catalogue, rather than one lookup per item
+            long[][] columns = new long[COLUMN_NAMES.length - 3][];
+            int column = 0;
+            for (long window : SOLD_WINDOWS) {
+                columns[column] = new long[size];
+                Main.OrderStats.unitsInLast(window, now, columns[column++]);
+            }
+            for (long window : DELIVERED_WINDOWS) {
+                columns[column] = new long[size];
+                Main.DeliveryStats.unitsInLast(window, now, columns[column++]);
+            }
+            int[] ids = new int[store.itemCount()];
+            long[][] rows = new long[ids.length][];
+            int count = 0;
+            for (int id = 0; id < size && count < ids.length; id++) {
+                if (!store.contains(id)) {
+                    continue;
+                }
+                long[] row = new long[COLUMN_NAMES.length - 1];
+                for (column = 0; column < columns.length; column++) {
+                    row[column] = columns[column][id];
+                }
+                row[column++] = Main.Totals.getUnitsSold(id);
+                row[column] = Main.Totals.getOrderCount(id);
+                ids[count] = id;
+                rows[count++] = row;
+            }
+            return new Object[] {Arrays.copyOf(ids, count), Arrays.copyOf(rows, count)};
+        }
+
+        @Override
+        public int getRowCount() {
+            return itemIds.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? String.class : Long.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            if (column == 0) {
+                return Main.Stock.getName(itemIds[row]);
+            }
+            return values[row][column - 1];
+        }
+    }
+}
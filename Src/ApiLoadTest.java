@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Load test for the HTTP API, run on the same machine.
+ *
+ * <p>A number of client threads, each standing in for a till, send requests back to back
+ * for a fixed time: mostly one-unit orders for a random item, with some stock reads and
+ * restocking deliveries mixed in. At the end it prints the request rate, the latency
+ * percentiles and how many responses had each status.
+ *
+ * <p>Without a {@code url} the test starts the API itself on a free port, working on its
+ * own inventory in a temporary directory that is deleted afterwards, so the real files
+ * are never touched. Against a {@code url} it only places small orders and deliveries;
+ * orders for items that run out come back as 409. Latencies go into a
+ * {@link LatencyHistogram}, so memory use does not grow with the length of the run.
+ * The token for a running API is taken from {@code token=} or else from {@code api.token}.
+ *
+ * <p>Usage:
+ * <pre>
+ * java ApiLoadTest [clients=32] [seconds=10] [url=http://localhost:8080] [token=...]
+ * </pre>
+ */
+public class ApiLoadTest {
+
+    private static final int START_STOCK = 1_000_000;
+
+    /**
+     * Sent in the token header when not null
+     */
+    private static String token;
+
+    public static void main(String[] args) throws Exception {
+        int clients = 32;
+        int seconds = 10;
+        String url = null;
+        for (String arg : args) {
+            if (arg.startsWith("clients=")) {
+                clients = Integer.parseInt(arg.substring(8));
+            } else if (arg.startsWith("seconds=")) {
+                seconds = Integer.parseInt(arg.substring(8));
+            } else if (arg.startsWith("url=")) {
+                url = arg.substring(4);
+            } else if (arg.startsWith("token=")) {
+                token = arg.substring(6);
+            }
+        }
+        if (url != null && token == null) {
+            token = ApiServer.readToken(new File(ApiServer.TOKEN_FILE));
+        }
+
+        ApiServer server = null;
+        File dir = null;
+        if (url == null) {
+            dir = Files.createTempDirectory("inventory-api-load").toFile();
+            openInventory(dir);
+            server = new ApiServer(0, null, null);
+            server.start();
+            url = "http://localhost:" + server.getPort();
+        }
+        try {
+            run(url, clients, seconds);
+        } finally {
+            if (server != null) {
+                server.stop();
+                Main.Writer.flush();
+                Main.Service.checkpoint();
+                for (File file : dir.listFiles()) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    /**
+     * Sets up {@code Main} with an inventory of its own in {@code dir}, with plenty of stock
+     * so orders are not refused.
+     */
+    private static void openInventory(File dir) throws IOException {
+        InventoryStore store = new InventoryStore();
+        for (Main.idNum item : Main.idNum.values()) {
+            store.add(item.ordinal(), item.name(), START_STOCK);
+        }
+        InventorySnapshot snapshot = InventorySnapshot.create(new File(dir, "inventory.bin"), store);
+        Order.setIdGenerator(IdGenerator.open(new File(dir, "orders.id"), 1));
+        Delivery.setIdGenerator(IdGenerator.open(new File(dir, "deliveries.id"), 1));
+        Main.Stock = store;
+        Main.Service = new StockService(store, snapshot, InventoryWal.open(new File(dir, "inventory.wal")),
+                new OrderJournal(new File(dir, "orders.txt").getPath()),
+                new OrderJournal(new File(dir, "Delivery.txt").getPath()));
+        Main.Service.startCheckpoints(Main.CHECKPOINT_SECONDS);
+        Main.Writer = new PersistenceWriter(Main.Service);
+    }
+
+    private static void run(String url, int clients, int seconds) throws Exception {
+        HttpClient client = HttpClient.newBuilder().executor(ApiServer.requestExecutor()).build();
+        String[] items = fetchItemNames(client, url);
+
+        System.out.printf("%d clients for %d s against %s%n", clients, seconds, url);
+        AtomicLongArray statuses = new AtomicLongArray(600);
+        LatencyHistogram latency = new LatencyHistogram();
+        Thread[] threads = new Thread[clients];
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        final String base = url;
+        for (int c = 0; c < clients; c++) {
+            threads[c] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    String item = items[random.nextInt(items.length)];
+                    int pick = random.nextInt(100);
+                    long start = System.nanoTime();
+                    int status;
+                    try {
+                        if (pick < 80) {
+                            status = post(client, base + "/orders", item, 1);
+                        } else if (pick < 95) {
+                            status = get(client, base + "/inventory/" + item);
+                        } else {
+                            status = post(client, base + "/deliveries", item, 20);
+                        }
+                    } catch (Exception e) {
+                        status = 599; //connection failed
+                    }
+                    latency.record(System.nanoTime() - start);
+                    statuses.incrementAndGet(Math.min(status, 599));
+                }
+            }, "till-" + c);
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long total = latency.getCount();
+        System.out.printf(Locale.ROOT, "requests: %d (%.0f/s)%n", total, total / (double) seconds);
+        if (total > 0) {
+            System.out.println("latency " + latency.summary());
+        }
+        for (int status = 0; status < 600; status++) {
+            if (statuses.get(status) > 0) {
+                System.out.println("status " + status + ": " + statuses.get(status));
+            }
+        }
+    }
+
+    private static String[] fetchItemNames(HttpClient client, String url) throws Exception {
+        String body = client.send(request(url + "/inventory").build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+        //[{"id":0,"name":"Bread","quantity":12},...]
+        String[] objects = body.split("\\},?");
+        String[] names = new String[objects.length];
+        int n = 0;
+        for (String object : objects) {
+            String name = ApiServer.parseObject(object + "}").get("name");
+            if (name != null) {
+                names[n++] = name;
+            }
+        }
+        return Arrays.copyOf(names, n);
+    }
+
+    private static int post(HttpClient client, String url, String item, int quantity) throws Exception {
+        String json = "{\"item\":" + ApiServer.quote(item) + ",\"quantity\":" + quantity + "}";
+        HttpRequest request = request(url)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json)).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static int get(HttpClient client, String url) throws Exception {
+        HttpRequest request = request(url.replace(" ", "%20")).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static HttpRequest.Builder request(String url) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url));
+        return token == null ? builder : builder.header(ApiServer.TOKEN_HEADER, token);
+    }
+}
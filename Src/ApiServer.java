@@ -0,0 +1,607 @@
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP/JSON API for the tills and kitchen tablets, on the JDK's built-in HTTP server.
+ * It works on the same in-memory inventory as the windows, so a sale at a till shows up
+ * in an open inventory table straight away.
+ *
+ * <p>Endpoints:
+ * <ul>
+ *   <li>{@code GET /inventory} - every item: {@code [{"id":0,"name":"Bread","quantity":12}, ...]}</li>
+ *   <li>{@code GET /inventory/<name>} - one item, 404 if unknown</li>
+ *   <li>{@code POST /orders} with {@code {"item":"Bread","quantity":2}} - 201 with the order,
+ *       409 if there is not enough stock</li>
+ *   <li>{@code POST /deliveries} with {@code {"item":"Bread","quantity":24}} - 201 with the delivery</li>
+ *   <li>{@code POST /transfers} with {@code {"from":"kitchen","to":"main","item":"Bread","quantity":10}}
+ *       - 201 with the transfer, 409 if the first location does not have enough</li>
+ *   <li>{@code GET /locations} - the location names, main first</li>
+ *   <li>{@code GET /locations/stock} - total stock of each item across all locations</li>
+ *   <li>{@code GET /locations/low?below=10} - for each location, its items with less than that</li>
+ * </ul>
+ * Parameters may also be given in the query string ({@code ?item=Bread&quantity=2}). The
+ * inventory, orders and deliveries endpoints take an optional {@code location} (see
+ * {@code LocationSet}); without one they work on the main location, like the windows.
+ * Each location saves through its own writer, so tills at different locations never
+ * wait for each other.
+ *
+ * <p>The API listens on the loopback address only, unless the {@code api.bind} system
+ * property names another address for the tills to reach ({@code -Dapi.bind=0.0.0.0}). It
+ * then refuses to start without a shared token in {@code api.token}. When that file
+ * exists, every request must carry its first line in an {@code X-Api-Token} header and
+ * gets 401 otherwise. Malformed parameters or JSON escapes get 400.
+ *
+ * <p>Each request runs on its own virtual thread when the JDK has them (21 and later) and on
+ * a cached thread pool otherwise. Orders and deliveries go through {@code Main.Writer}, so
+ * requests that arrive together are saved together with one forced write.
+ *
+ * <p>Usage, without the windows:
+ * <pre>
+ * java ApiServer [port=8080]
+ * </pre>
+ * or with them: {@code java Main --api [port]}.
+ */
+public class ApiServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    /**
+     * File holding the shared token the tills must send, read from the working directory
+     */
+    public static final String TOKEN_FILE = "api.token";
+    public static final String TOKEN_HEADER = "X-Api-Token";
+    /**
+     * Most units one order, delivery or transfer may move, well clear of overflowing the stock
+     */
+    public static final int MAX_QUANTITY = 1_000_000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] token;
+
+    /**
+     * An API set up from the {@code api.bind} system property and the token file.
+     */
+    public ApiServer(int port) throws IOException {
+        this(port, System.getProperty("api.bind"), readToken(new File(TOKEN_FILE)));
+    }
+
+    /**
+     * @param bind  address to listen on, null for the loopback address
+     * @param token token every request must carry, null to accept requests without one,
+     *              which is only allowed on the loopback address
+     */
+    public ApiServer(int port, String bind, String token) throws IOException {
+        InetAddress address = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        if (token == null && !address.isLoopbackAddress()) {
+            throw new IOException("Not listening on " + bind + " without a token in " + TOKEN_FILE);
+        }
+        this.token = token == null ? null : token.getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(address, port), 1024);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        context("/inventory", this::inventory);
+        context("/orders", exchange -> change(exchange, true));
+        context("/deliveries", exchange -> change(exchange, false));
+        context("/transfers", this::transfer);
+        context("/locations", this::locations);
+    }
+
+    private void context(String path, HttpHandler handler) {
+        HttpContext context = server.createContext(path, handler);
+        if (token != null) {
+            context.setAuthenticator(new TokenCheck());
+        }
+    }
+
+    /**
+     * Lets a request through only if its token header matches, compared in constant time.
+     */
+    private class TokenCheck extends Authenticator {
+        @Override
+        public Result authenticate(HttpExchange exchange) {
+            String sent = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+            if (sent != null && MessageDigest.isEqual(token, sent.getBytes(StandardCharsets.UTF_8))) {
+                return new Success(new HttpPrincipal("till", "inventory"));
+            }
+            return new Failure(401);
+        }
+    }
+
+    /**
+     * The first line of {@code file}, or null if there is no such file or it is blank.
+     */
+    static String readToken(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || lines.get(0).isBlank()) {
+            return null;
+        }
+        return lines.get(0).strip();
+    }
+
+    public void start() {
+        server.start();
+        Metrics.gauge("api.port", this::getPort);
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * One virtual thread per request when available, looked up by reflection so the
+     * program still builds and runs on JDK 17.
+     */
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "api-request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private void inventory(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, error("Use GET"));
+                return;
+            }
+            Map<String, String> params;
+            try {
+                params = params(exchange, false);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            LocationSet.Location location = location(params);
+            if (location == null) {
+                send(exchange, 404, error("Unknown location"));
+                return;
+            }
+            InventoryStore store = location.getStore();
+            String path = exchange.getRequestURI().getPath();
+            if (path.length() > "/inventory/".length()) {
+                //getPath() has already decoded the name
+                String name = path.substring("/inventory/".length());
+                int id = store.indexOf(name);
+                if (id < 0) {
+                    send(exchange, 404, error("Unknown item: " + name));
+                } else {
+                    send(exchange, 200, item(store, id));
+                }
+                return;
+            }
+            StringBuilder json = new StringBuilder("[");
+            for (int id = 0; id < store.size(); id++) {
+                if (store.contains(id)) {
+                    if (json.length() > 1) {
+                        json.append(',');
+                    }
+                    json.append(item(store, id));
+                }
+            }
+            send(exchange, 200, json.append(']').toString());
+        } catch (RuntimeException e) {
+            internalError(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void change(HttpExchange exchange, boolean order) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, error("Use POST"));
+                return;
+            }
+            Map<String, String> params;
+            try {
+                params = params(exchange, true);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            String itemName = params.get("item");
+            int quantity;
+            try {
+                quantity = Integer.parseInt(params.getOrDefault("quantity", ""));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, error("quantity must be a whole number"));
+                return;
+            }
+            if (itemName == null || quantity <= 0) {
+                send(exchange, 400, error("item and a positive quantity are required"));
+                return;
+            }
+            if (quantity > MAX_QUANTITY) {
+                send(exchange, 400, error("quantity must be at most " + MAX_QUANTITY));
+                return;
+            }
+            LocationSet.Location location = location(params);
+            if (location == null) {
+                send(exchange, 404, error("Unknown location: " + params.get("location")));
+                return;
+            }
+            InventoryStore store = location.getStore();
+            if (store.indexOf(itemName) < 0) {
+                send(exchange, 404, error("Unknown item: " + itemName));
+                return;
+            }
+            //history and totals are those of the main location, as shown in the windows
+            boolean main = location.name.equals(LocationSet.MAIN);
+
+            if (order) {
+                Order saved = location.writer.placeOrder(itemName, quantity).join();
+                if (saved == null) {
+                    int available = store.getQuantity(store.indexOf(itemName));
+                    send(exchange, 409, "{\"error\":\"Not enough stock\",\"available\":" + available + "}");
+                    return;
+                }
+                if (main) {
+                    Main.recordOrder(saved);
+                }
+                send(exchange, 201, record(saved.getId(), itemName, quantity, saved.getTimestamp()));
+            } else {
+                Delivery saved = location.writer.receiveDelivery(itemName, quantity).join();
+                if (main) {
+                    Main.recordDelivery(saved);
+                }
+                send(exchange, 201, record(saved.getId(), itemName, quantity, saved.getTimestamp()));
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) { //the stock would overflow
+                send(exchange, 409, error(e.getCause().getMessage()));
+                return;
+            }
+            Metrics.error("api", e);
+            send(exchange, 500, error("Could not be saved: " + e.getCause().getMessage()));
+        } catch (RuntimeException e) {
+            internalError(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void transfer(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, error("Use POST"));
+                return;
+            }
+            LocationSet locations = Main.Locations;
+            if (locations == null) {
+                send(exchange, 503, error("Locations are not open"));
+                return;
+            }
+            Map<String, String> params;
+            try {
+                params = params(exchange, true);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            String from = params.get("from");
+            String to = params.get("to");
+            String itemName = params.get("item");
+            int quantity;
+            try {
+                quantity = Integer.parseInt(params.getOrDefault("quantity", ""));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, error("quantity must be a whole number"));
+                return;
+            }
+            if (from == null || to == null || itemName == null || quantity <= 0) {
+                send(exchange, 400, error("from, to, item and a positive quantity are required"));
+                return;
+            }
+            if (quantity > MAX_QUANTITY) {
+                send(exchange, 400, error("quantity must be at most " + MAX_QUANTITY));
+                return;
+            }
+            try {
+                if (!locations.transfer(from, to, itemName, quantity)) {
+                    InventoryStore store = locations.get(from).getStore();
+                    int available = store.getQuantity(store.indexOf(itemName));
+                    send(exchange, 409, "{\"error\":\"Not enough stock\",\"available\":" + available + "}");
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                send(exchange, 404, error(e.getMessage()));
+                return;
+            }
+            send(exchange, 201, "{\"from\":" + quote(from) + ",\"to\":" + quote(to) + ",\"item\":"
+                    + quote(itemName) + ",\"quantity\":" + quantity + "}");
+        } catch (IOException e) {
+            Metrics.error("api", e);
+            send(exchange, 500, error("Could not be saved: " + e.getMessage()));
+        } catch (RuntimeException e) {
+            internalError(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void locations(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, error("Use GET"));
+                return;
+            }
+            LocationSet locations = Main.Locations;
+            if (locations == null) {
+                send(exchange, 503, error("Locations are not open"));
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/locations/stock")) {
+                StringBuilder json = new StringBuilder("{");
+                locations.totalStock().forEach((item, quantity) ->
+                        json.append(json.length() > 1 ? "," : "").append(quote(item)).append(':').append(quantity));
+                send(exchange, 200, json.append('}').toString());
+            } else if (path.equals("/locations/low")) {
+                int below;
+                try {
+                    below = Integer.parseInt(params(exchange, false).getOrDefault("below", ""));
+                } catch (NumberFormatException e) {
+                    send(exchange, 400, error("below must be a whole number"));
+                    return;
+                } catch (IllegalArgumentException e) {
+                    send(exchange, 400, error(e.getMessage()));
+                    return;
+                }
+                StringBuilder json = new StringBuilder("{");
+                locations.itemsBelow(below).forEach((name, items) ->
+                        json.append(json.length() > 1 ? "," : "").append(quote(name)).append(':').append(names(items)));
+                send(exchange, 200, json.append('}').toString());
+            } else if (path.equals("/locations") || path.equals("/locations/")) {
+                StringBuilder json = new StringBuilder("[");
+                for (LocationSet.Location location : locations.getLocations()) {
+                    json.append(json.length() > 1 ? "," : "").append(quote(location.name));
+                }
+                send(exchange, 200, json.append(']').toString());
+            } else {
+                send(exchange, 404, error("Unknown path: " + path));
+            }
+        } catch (RuntimeException e) {
+            internalError(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The location named by the {@code location} parameter, the main one without it,
+     * or null if there is no location of that name.
+     */
+    private static LocationSet.Location location(Map<String, String> params) {
+        String name = params.getOrDefault("location", LocationSet.MAIN);
+        LocationSet locations = Main.Locations;
+        if (locations != null) {
+            return locations.get(name);
+        }
+        return name.equals(LocationSet.MAIN) ? new LocationSet.Location(LocationSet.MAIN, Main.Service, Main.Writer) : null;
+    }
+
+    private static String names(List<String> items) {
+        StringBuilder json = new StringBuilder("[");
+        for (String item : items) {
+            json.append(json.length() > 1 ? "," : "").append(quote(item));
+        }
+        return json.append(']').toString();
+    }
+
+    private static String item(InventoryStore store, int id) {
+        return "{\"id\":" + id + ",\"name\":" + quote(store.getName(id)) + ",\"quantity\":"
+                + store.getQuantity(id) + "}";
+    }
+
+    private static String record(int id, String itemName, int quantity, long timestamp) {
+        return "{\"id\":" + id + ",\"item\":" + quote(itemName) + ",\"quantity\":" + quantity
+                + ",\"timestamp\":" + timestamp + "}";
+    }
+
+    /**
+     * Answers 500 for an unexpected failure, so the till gets a reply rather than a dropped connection.
+     */
+    private static void internalError(HttpExchange exchange, RuntimeException e) throws IOException {
+        Metrics.error("api", e);
+        send(exchange, 500, error("Internal error"));
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * The query string parameters, overridden by those of the JSON body if {@code body} is set.
+     *
+     * @throws IllegalArgumentException if either is malformed
+     */
+    private static Map<String, String> params(HttpExchange exchange, boolean body) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        if (body) {
+            params.putAll(parseObject(readBody(exchange.getRequestBody())));
+        }
+        return params;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        HashMap<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Reads a flat JSON object of string and number values, which is all the API accepts.
+     * Anything it can't read is ignored, leaving the request to fail validation, except a
+     * malformed escape, for which it throws IllegalArgumentException.
+     */
+    static Map<String, String> parseObject(String json) {
+        HashMap<String, String> values = new HashMap<>();
+        int i = json.indexOf('{');
+        if (i < 0) {
+            return values;
+        }
+        i++;
+        while (i < json.length()) {
+            i = skipSpace(json, i);
+            if (i >= json.length() || json.charAt(i) != '"') {
+                break;
+            }
+            StringBuilder key = new StringBuilder();
+            i = readString(json, i, key);
+            i = skipSpace(json, i);
+            if (i >= json.length() || json.charAt(i) != ':') {
+                break;
+            }
+            i = skipSpace(json, i + 1);
+            if (i >= json.length()) {
+                break;
+            }
+            StringBuilder value = new StringBuilder();
+            if (json.charAt(i) == '"') {
+                i = readString(json, i, value);
+            } else {
+                while (i < json.length() && ",} \t\r\n".indexOf(json.charAt(i)) < 0) {
+                    value.append(json.charAt(i++));
+                }
+            }
+            values.put(key.toString(), value.toString());
+            i = skipSpace(json, i);
+            if (i < json.length() && json.charAt(i) == ',') {
+                i++;
+            }
+        }
+        return values;
+    }
+
+    private static int skipSpace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reads a quoted string starting at {@code i}, returning the index after the closing quote.
+     */
+    private static int readString(String json, int i, StringBuilder out) {
+        i++; //opening quote
+        while (i < json.length() && json.charAt(i) != '"') {
+            char c = json.charAt(i++);
+            if (c == '\\' && i < json.length()) {
+                char escaped = json.charAt(i++);
+                switch (escaped) {
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'r': out.append('\r'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int end = i + 4; i < end; i++) {
+                            int digit = i < json.length() ? Character.digit(json.charAt(i), 16) : -1;
+                            if (digit < 0) {
+                                throw new IllegalArgumentException("Malformed \\u escape in JSON");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        out.append((char) code);
+                        break;
+                    default: out.append(escaped);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        return i + 1;
+    }
+
+    static String quote(String text) {
+        StringBuilder out = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Metrics.start(new File("metrics.log"), Main.METRICS_SECONDS);
+        Main.init();
+        if (Main.Service == null) {
+            System.exit(3); //the reason went to Metrics.error, e.g. the windows have inventory.wal
+        }
+        Main.loadOrderIds();
+        Main.loadDeliveryIds();
+        Main.recover();
+        Main.Service.startCheckpoints(Main.CHECKPOINT_SECONDS);
+        Main.openLocations();
+        new Thread(Main::loadOrders, "history-loader").start();
+        new Thread(Main::loadDeliveries, "history-loader").start();
+        new ApiServer(port).start();
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.Console;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Checks staff logins and keeps track of edit sessions.
+ *
+ * <p>Credentials are kept in {@code users.dat}, one {@code username:iterations:salt:hash}
+ * line per user, where the hash is PBKDF2 (HMAC-SHA256) of the password with a random
+ * per-user salt. No passwords are stored. The file is read once, the first time it is
+ * needed, and hashes are compared in constant time. It is replaced in one atomic rename of a
+ * forced temporary file, so a crash never leaves it half written. If it cannot be read,
+ * every login fails with {@link #getLoadError()} saying why, reading is tried again at the
+ * next login, and no password can be changed, which would overwrite the other users.
+ *
+ * <p>The first time the service runs it converts the old plain-text {@code login.dat}
+ * (username on the first line, password on the second) into {@code users.dat} and deletes
+ * it. If neither file exists the old default account is created.
+ *
+ * <p>A successful login starts an edit session that lasts {@link #SESSION_MINUTES} minutes
+ * from the last edit, so a stock-take needs one login rather than one per edit.
+ *
+ * <p>Users can be added from the command line:
+ * <pre>
+ * java AuthService add username
+ * </pre>
+ * which asks for the password without echoing it, so it stays out of the shell history.
+ */
+public class AuthService {
+
+    public static final long SESSION_MINUTES = 15;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int ITERATIONS = 120_000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    //old default account, only used when there is no credential file at all
+    private static final String DEFAULT_USER = "CookieMonsta";
+    private static final String DEFAULT_PASSWORD = "ILuvCookies";
+
+    /**
+     * Stored credential of one user.
+     */
+    private static class Credential {
+        final int iterations;
+        final byte[] salt;
+        final byte[] hash;
+
+        Credential(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    private final File file;
+    private final File legacyFile;
+    private final SecureRandom random = new SecureRandom();
+    private HashMap<String, Credential> users; //null until read, or when reading failed
+    private Exception loadError;
+
+    //current edit session
+    private String sessionUser;
+    private long sessionExpires;
+
+    /**
+     * @param file        credential file
+     * @param legacyFile  old plain-text login file to migrate from
+     */
+    public AuthService(File file, File legacyFile) {
+        this.file = file;
+        this.legacyFile = legacyFile;
+    }
+
+    /**
+     * Reads the credential file, migrating or creating it first if needed. Called on first
+     * use; may be called early from a background thread to keep the file read off the EDT.
+     */
+    public synchronized void load() {
+        if (users != null) {
+            return;
+        }
+        users = new HashMap<>();
+        loadError = null;
+        try {
+            if (file.exists()) {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    String[] parts = line.split(":");
+                    if (parts.length == 4) {
+                        Base64.Decoder base64 = Base64.getDecoder();
+                        users.put(parts[0], new Credential(Integer.parseInt(parts[1]),
+                                base64.decode(parts[2]), base64.decode(parts[3])));
+                    }
+                }
+            } else if (legacyFile.exists()) {
+                List<String> lines = Files.readAllLines(legacyFile.toPath(), StandardCharsets.UTF_8);
+                if (lines.size() >= 2) {
+                    users.put(lines.get(0), hash(lines.get(1).toCharArray()));
+                }
+                save();
+                Files.delete(legacyFile.toPath()); //no plain-text password left behind
+            } else {
+                users.put(DEFAULT_USER, hash(DEFAULT_PASSWORD.toCharArray()));
+                save();
+            }
+        } catch (IOException | RuntimeException e) {
+            Metrics.error("auth", e);
+            users = null;
+            loadError = e;
+        }
+    }
+
+    /**
+     * Why the credential file could not be read the last time it was tried, or null.
+     */
+    public synchronized String getLoadError() {
+        return loadError == null ? null : file.getName() + " could not be read: " + loadError.getMessage();
+    }
+
+    /**
+     * Checks a username and password. Takes the same time whether or not the user exists.
+     */
+    public boolean authenticate(String username, char[] password) {
+        Credential stored;
+        synchronized (this) {
+            load();
+            stored = users == null ? null : users.get(username);
+        }
+        //unknown users are checked against a throwaway credential so they take just as long
+        Credential check = stored != null ? stored : new Credential(ITERATIONS, new byte[SALT_BYTES], new byte[HASH_BITS / 8]);
+        byte[] hash = pbkdf2(password, check.salt, check.iterations);
+        return MessageDigest.isEqual(hash, check.hash) && stored != null;
+    }
+
+    /**
+     * Checks a login and, if it is valid, starts an edit session for that user.
+     */
+    public boolean login(String username, char[] password) {
+        if (!authenticate(username, password)) {
+            return false;
+        }
+        synchronized (this) {
+            sessionUser = username;
+            sessionExpires = System.currentTimeMillis() + SESSION_MINUTES * 60_000;
+        }
+        return true;
+    }
+
+    /**
+     * True if there is an edit session that has not timed out. Each call with a live session
+     * extends it, so the session ends {@link #SESSION_MINUTES} after the last edit.
+     */
+    public synchronized boolean hasEditSession() {
+        long now = System.currentTimeMillis();
+        if (sessionUser == null || now >= sessionExpires) {
+            sessionUser = null;
+            return false;
+        }
+        sessionExpires = now + SESSION_MINUTES * 60_000;
+        return true;
+    }
+
+    /**
+     * User of the current edit session, or null.
+     */
+    public synchronized String getSessionUser() {
+        return hasEditSession() ? sessionUser : null;
+    }
+
+    /**
+     * Ends the current edit session.
+     */
+    public synchronized void logout() {
+        sessionUser = null;
+    }
+
+    /**
+     * Adds a user, or changes their password, and saves the credential file.
+     */
+    public synchronized void setPassword(String username, char[] password) throws IOException {
+        if (username.isEmpty() || username.contains(":")) {
+            throw new IllegalArgumentException("Invalid username: " + username);
+        }
+        load();
+        if (users == null) {
+            throw new IOException(getLoadError(), loadError);
+        }
+        users.put(username, hash(password));
+        save();
+    }
+
+    private Credential hash(char[] password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return new Credential(ITERATIONS, salt, pbkdf2(password, salt, ITERATIONS));
+    }
+
+    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Writes every credential to a temporary file, forces it to disk and renames it over the
+     * credential file in one step.
+     */
+    private void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Base64.Encoder base64 = Base64.getEncoder();
+        try (FileOutputStream stream = new FileOutputStream(temp);
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            for (var entry : users.entrySet()) {
+                Credential c = entry.getValue();
+                out.println(entry.getKey() + ":" + c.iterations + ":" + base64.encodeToString(c.salt)
+                        + ":" + base64.encodeToString(c.hash));
+            }
+            out.flush();
+            if (out.checkError()) {
+                throw new IOException("Could not write " + temp.getName());
+            }
+            stream.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || !args[0].equals("add")) {
+            System.out.println("Usage: java AuthService add username");
+            return;
+        }
+        Console console = System.console();
+        if (console == null) {
+            System.out.println("Run this from a terminal, the password is read from it");
+            return;
+        }
+        char[] password = console.readPassword("Password for %s: ", args[1]);
+        char[] again = console.readPassword("Repeat the password: ");
+        if (password == null || password.length == 0 || !Arrays.equals(password, again)) {
+            System.out.println("The passwords are empty or do not match, nothing was saved");
+            return;
+        }
+        new AuthService(new File("users.dat"), new File("login.dat")).setPassword(args[1], password);
+        Arrays.fill(password, '\0');
+        Arrays.fill(again, '\0');
+        System.out.println("Saved user " + args[1]);
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+/**
+ * Headless entry point for importing large CSV files of orders or deliveries,
+ * such as end-of-day dumps from the tills, without opening a window per record.
+ *
+ * <p>Each line has the form {@code itemName,quantity}; an optional header line is skipped.
+ * The file is streamed in batches through four stages:
+ * <ol>
+ *   <li>parse - the lines of a batch are parsed in parallel</li>
+ *   <li>validate - unknown items and bad quantities are rejected (done in the same parallel pass)</li>
+ *   <li>apply - stock is updated; orders use the atomic {@code InventoryStore.tryRemove},
+ *       so an order for more than is in stock is rejected</li>
+ *   <li>persist - the changes of the batch are logged to {@code inventory.wal} and the
+ *       records appended to the journal with one forced write each; the inventory snapshot
+ *       is checkpointed at the end of the import</li>
+ * </ol>
+ * The next batch is parsed while the current one is being applied and persisted.
+ * Rejected lines are written with the reason to {@code <file>.rejected}.
+ *
+ * <p>Usage:
+ * <pre>
+ * java BulkImport orders|deliveries file.csv [batchSize]
+ * </pre>
+ */
+public class BulkImport {
+
+    private static final int DEFAULT_BATCH_SIZE = 50_000;
+
+    /**
+     * One batch of lines and the result of parsing them.
+     */
+    private static class Batch {
+        final String[] lines;
+        final int[] itemIds;
+        final int[] quantities;
+        final String[] errors; //null when the line is valid
+
+        Batch(List<String> lines) {
+            this.lines = lines.toArray(new String[0]);
+            this.itemIds = new int[this.lines.length];
+            this.quantities = new int[this.lines.length];
+            this.errors = new String[this.lines.length];
+        }
+    }
+
+    private final boolean orders;
+    private final int batchSize;
+
+    private long linesRead;
+    private long accepted;
+    private long rejected;
+    private boolean firstLine = true;
+
+    public BulkImport(boolean orders, int batchSize) {
+        this.orders = orders;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || !(args[0].equals("orders") || args[0].equals("deliveries"))) {
+            System.err.println("Usage: java BulkImport orders|deliveries file.csv [batchSize]");
+            System.exit(1);
+        }
+        boolean orders = args[0].equals("orders");
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE;
+
+        Main.init(); //loading inventory
+        if (Main.Service == null) {
+            //also the case while the program has inventory.wal locked
+            System.err.println("The inventory could not be opened; is the inventory program running?");
+            System.exit(3);
+        }
+        //history is needed so new records continue from the last saved id
+        Main.loadOrderIds();
+        Main.loadDeliveryIds();
+        Main.recover(); //finish any changes an earlier crash left in the log
+
+        long start = System.nanoTime();
+        BulkImport job = new BulkImport(orders, batchSize);
+        try {
+            job.run(new File(args[1]));
+            Main.Service.checkpoint();
+        } catch (IOException e) {
+            Metrics.error("import", e);
+            System.exit(2);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Read %d lines: %d imported, %d rejected in %.2fs (%.0f lines/s)%n",
+                job.linesRead, job.accepted, job.rejected, seconds, job.linesRead / seconds);
+    }
+
+    /**
+     * Streams the whole file through the import stages.
+     */
+    public void run(File csv) throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(csv, StandardCharsets.UTF_8), 1 << 16);
+             PrintWriter rejects = new PrintWriter(csv.getPath() + ".rejected", StandardCharsets.UTF_8)) {
+            CompletableFuture<Batch> next = parseAsync(readBatch(in));
+            while (true) {
+                Batch batch = next.join();
+                if (batch.lines.length == 0) {
+                    break;
+                }
+                //start parsing the following batch while this one is applied and saved
+                next = parseAsync(readBatch(in));
+                applyAndPersist(batch, rejects);
+            }
+        }
+    }
+
+    private List<String> readBatch(BufferedReader in) throws IOException {
+        ArrayList<String> lines = new ArrayList<>(batchSize);
+        String line;
+        while (lines.size() < batchSize && (line = in.readLine()) != null) {
+            if (firstLine) {
+                firstLine = false;
+                if (isHeader(line)) {
+                    continue;
+                }
+            }
+            lines.add(line);
+        }
+        linesRead += lines.size();
+        return lines;
+    }
+
+    private static boolean isHeader(String line) {
+        int comma = line.indexOf(',');
+        return comma >= 0 && !line.substring(comma + 1).trim().matches("-?\\d+");
+    }
+
+    /**
+     * Parse and validate stage, run in parallel over the lines of a batch.
+     */
+    private CompletableFuture<Batch> parseAsync(List<String> lines) {
+        return CompletableFuture.supplyAsync(() -> {
+            Batch batch = new Batch(lines);
+            IntStream.range(0, batch.lines.length).parallel().forEach(i -> parseLine(batch, i));
+            return batch;
+        });
+    }
+
+    private void parseLine(Batch batch, int i) {
+        String line = batch.lines[i];
+        int comma = line.indexOf(',');
+        if (comma < 0) {
+            batch.errors[i] = "expected itemName,quantity";
+            return;
+        }
+        String itemName = line.substring(0, comma).trim();
+        int end = line.indexOf(',', comma + 1); //ignore any extra columns
+        String quantityText = line.substring(comma + 1, end < 0 ? line.length() : end).trim();
+
+        int itemId = Main.Stock.indexOf(itemName);
+        if (itemId < 0) {
+            batch.errors[i] = "unknown item";
+            return;
+        }
+        int quantity;
+        try {
+            quantity = Integer.parseInt(quantityText);
+        } catch (NumberFormatException e) {
+            batch.errors[i] = "quantity is not a number";
+            return;
+        }
+        if (quantity <= 0) {
+            batch.errors[i] = "quantity must be positive";
+            return;
+        }
+        batch.itemIds[i] = itemId;
+        batch.quantities[i] = quantity;
+    }
+
+    /**
+     * Apply and persist stages - the valid lines of the batch go through {@code StockService}
+     * as one batch, so the change log and the journal are each forced once.
+     */
+    private void applyAndPersist(Batch batch, PrintWriter rejects) throws IOException {
+        int count = 0;
+        int[] lineOf = new int[batch.lines.length];
+        int[] itemIds = new int[batch.lines.length];
+        int[] quantities = new int[batch.lines.length];
+        for (int i = 0; i < batch.lines.length; i++) {
+            if (batch.errors[i] == null) {
+                lineOf[count] = i;
+                itemIds[count] = batch.itemIds[i];
+                quantities[count] = batch.quantities[i];
+                count++;
+            }
+        }
+
+        if (orders) {
+            boolean[] shortOfStock = new boolean[count];
+            accepted += Main.Service.placeOrders(itemIds, quantities, count, shortOfStock).size();
+            for (int i = 0; i < count; i++) {
+                if (shortOfStock[i]) {
+                    batch.errors[lineOf[i]] = "not enough in stock";
+                }
+            }
+        } else {
+            boolean[] tooMuch = new boolean[count];
+            accepted += Main.Service.receiveDeliveries(itemIds, quantities, count, tooMuch).size();
+            for (int i = 0; i < count; i++) {
+                if (tooMuch[i]) {
+                    batch.errors[lineOf[i]] = "stock would overflow";
+                }
+            }
+        }
+
+        for (int i = 0; i < batch.lines.length; i++) {
+            if (batch.errors[i] != null) {
+                rejects.println(batch.lines[i] + " # " + batch.errors[i]);
+                rejected++;
+            }
+        }
+    }
+}
@@ -1,4 +1,3 @@
-
 import java.awt.*;
 import javax.swing.*;
 import javax.swing.table.DefaultTableCellRenderer;
@@ -6,33 +5,39 @@ import javax.swing.table.DefaultTableCellRenderer;
 /**
  * CustomCellRenderer is a custom implementation of the DefaultTableCellRenderer
  * that applies specific background colors to cells in the 3rd column (index 2)
- * of a JTable based on the cell's value.
- * 
+ * of a JTable based on the stock status of the item on that row.
+ *
  * <p>The rendering logic is as follows:
  * <ul>
- *   <li>If the value in the cell is less than 2, the background color is set to light coral.</li>
- *   <li>If the value in the cell is greater than or equal to 50, the background color is set to light green.</li>
- *   <li>For all other values, the cell retains the default background and foreground colors of the table.</li>
+ *   <li>If the item is low on stock, the background color is set to light coral.</li>
+ *   <li>If the item is over stock, the background color is set to light green.</li>
+ *   <li>For all other items, the cell retains the default background and foreground colors of the table.</li>
  * </ul>
- * 
- * <p>If the value in the cell cannot be parsed as an integer, the default background
- * and foreground colors of the table are applied.
- * 
+ *
+ * <p>The status is not worked out here: {@code StockAlerts} works it out when the quantity
+ * changes, against each item's own thresholds, and the renderer only looks it up. The table
+ * must use an {@code InventoryTableModel} so the row can be mapped to an item id; for any
+ * other model the default colours are used.
+ *
  * <p>This renderer is designed to visually highlight specific conditions in the data
  * for better user experience and readability.
- * 
+ *
  * <p>Usage example:
  * <pre>
- * JTable table = new JTable(data, columnNames);
- * table.getColumnModel().getColumn(2).setCellRenderer(new CustomCellRenderer());
+ * JTable table = new JTable(new InventoryTableModel(Main.Stock));
+ * table.getColumnModel().getColumn(2).setCellRenderer(new CustomCellRenderer(Main.Alerts));
  * </pre>
- * 
+ *
  */
 
 public class CustomCellRenderer extends DefaultTableCellRenderer {
     private final Color lightCoral = new Color(240, 128, 128);
     private final Color lightGreen = new Color(128,240,128);
-    
+    private final StockAlerts alerts;
+
+    public CustomCellRenderer(StockAlerts alerts) {
+        this.alerts = alerts;
+    }
 
     public Component getTableCellRendererComponent(
         JTable table, Object value, boolean isSelected,
@@ -41,24 +46,16 @@ public class CustomCellRenderer extends DefaultTableCellRenderer {
         Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
 
         // Only apply custom color to the 3rd column (index 2)
-        if (column == 2) {
-            try {
-                int quantity = Integer.parseInt(value.toString());
-                if (quantity <= 5) { //red if less then 2 of item present
-                    c.setBackground(lightCoral);
-                    //c.setForeground(Color.WHITE);
-                } else if(quantity >= 50){ //green if more than 50 present
-                    c.setBackground(lightGreen);
-
-                } else { //regular otherwise
-                    c.setBackground(table.getBackground());
-                    c.setForeground(table.getForeground());
-                }
-
-            } catch (NumberFormatException e) {
-                c.setBackground(table.getBackground());
-            }
-        } else {
+        int status = StockAlerts.NORMAL;
+        if (column == 2 && table.getModel() instanceof InventoryTableModel) {
+            int itemId = ((InventoryTableModel) table.getModel()).getItemId(table.convertRowIndexToModel(row));
+            status = alerts.getStatus(itemId);
+        }
+        if (status == StockAlerts.LOW) { //red if low on stock
+            c.setBackground(lightCoral);
+        } else if (status == StockAlerts.OVER) { //green if over stock
+            c.setBackground(lightGreen);
+        } else { //regular otherwise
             c.setBackground(table.getBackground());
             c.setForeground(table.getForeground());
         }
@@ -10,9 +10,9 @@
 public class Delivery {
 
     /**
-     * Used to generate the id of the delivery.
+     * Used to generate the id of the delivery. Replaced by a persistent generator at startup.
      */
-    private static int nextId = 1;
+    private static volatile IdGenerator ids = IdGenerator.inMemory(1);
 
     /**
      * Unique identifier of a delivery.
@@ -29,17 +29,42 @@ public class Delivery {
      */
     private int quantity;
 
+    /**
+     * Time the delivery was recorded, in milliseconds since the epoch.
+     */
+    private long timestamp;
+
 
     /**
-         * Constructs a new delivery with the specified details. An id is auto-generated for each order using nextId.
+         * Constructs a new delivery with the specified details. An id is auto-generated for each order by the id generator.
          *
          * @param itemName      Name of the item delivered
          * @param quantity      Quantity of the item delivered
      */
     public Delivery(String itemName, int quantity) {
-        this.id = nextId++;
+        this.id = ids.next();
+        this.itemName = itemName;
+        this.quantity = quantity;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+         * Rebuilds a delivery that was read back from the journal. No new id is generated.
+         *
+         * @param id            Id the delivery was saved with
+         * @param itemName      Name of the item
+         * @param quantity      Quantity of the item
+         * @param timestamp     Time the delivery was recorded
+     */
+    public Delivery(int id, String itemName, int quantity, long timestamp) {
+        this.id = id;
         this.itemName = itemName;
         this.quantity = quantity;
+        this.timestamp = timestamp;
+    }
+
+    public int getId() {
+        return id;
     }
 
     public String getItemName() {
@@ -50,6 +75,10 @@ public class Delivery {
         return quantity;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
     /**
      * Returns a string representation of the delivery.
      *
@@ -58,10 +87,27 @@ public class Delivery {
     // String representation for file writing
     @Override
     public String toString() {
-        return itemName + "," + quantity;
+        return id + "," + itemName + "," + quantity + "," + timestamp;
     }
 
+    /**
+     * Makes sure new ids are at least {@code id}; never moves the generator backwards.
+     */
     public static void setNextId(int id) {
-        nextId = id;
+        ids.advanceTo(id);
+    }
+
+    /**
+     * Id the next new one will get, if no other thread gets there first.
+     */
+    public static int peekNextId() {
+        return ids.peek();
+    }
+
+    /**
+     * Sets the generator new ids come from.
+     */
+    public static void setIdGenerator(IdGenerator generator) {
+        ids = generator;
     }
 }
@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Column store for the order or delivery history.
+ *
+ * <p>Instead of one {@code Order} object per record, the history is kept in parallel
+ * primitive columns - record id, item code, quantity and timestamp - that grow in fixed-size
+ * chunks, so growing never copies old records. Item names are dictionary encoded: each
+ * distinct name is stored once and records hold a small int code. A record costs 20 bytes
+ * and scans and sums run over plain arrays with no per-record objects.
+ *
+ * <p>Appends are synchronized; reads need no lock. A reader takes {@link #size()} once and
+ * only looks at records below it, which are never changed after being appended.
+ */
+public class HistoryStore {
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS; //16384 records per chunk
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Callback used by {@link #forEach(RowHandler)}.
+     */
+    public interface RowHandler {
+        void row(int id, int itemCode, int quantity, long timestamp);
+    }
+
+    private volatile int[][] idChunks = new int[1][];
+    private volatile int[][] itemChunks = new int[1][];
+    private volatile int[][] quantityChunks = new int[1][];
+    private volatile long[][] timeChunks = new long[1][];
+    private volatile int size;
+
+    //item name dictionary
+    private final HashMap<String, Integer> codes = new HashMap<>();
+    private volatile String[] names = new String[16];
+    private int nameCount;
+
+    /**
+     * Appends one record.
+     */
+    public synchronized void append(int id, String itemName, int quantity, long timestamp) {
+        append(id, codeFor(itemName), quantity, timestamp);
+    }
+
+    private void append(int id, int itemCode, int quantity, long timestamp) {
+        int row = size;
+        int chunk = row >> CHUNK_BITS;
+        if (chunk >= idChunks.length) {
+            grow(chunk + 1);
+        }
+        if (idChunks[chunk] == null) {
+            idChunks[chunk] = new int[CHUNK_SIZE];
+            itemChunks[chunk] = new int[CHUNK_SIZE];
+            quantityChunks[chunk] = new int[CHUNK_SIZE];
+            timeChunks[chunk] = new long[CHUNK_SIZE];
+        }
+        int index = row & CHUNK_MASK;
+        idChunks[chunk][index] = id;
+        itemChunks[chunk][index] = itemCode;
+        quantityChunks[chunk][index] = quantity;
+        timeChunks[chunk][index] = timestamp;
+        size = row + 1; //volatile write publishes the record to readers
+    }
+
+    /**
+     * Appends every record of another store, e.g. records saved while this one was loading.
+     */
+    public synchronized void appendAll(HistoryStore other) {
+        int count = other.size();
+        for (int row = 0; row < count; row++) {
+            append(other.getId(row), codeFor(other.getItemName(row)), other.getQuantity(row), other.getTimestamp(row));
+        }
+    }
+
+    private void grow(int minChunks) {
+        int length = Math.max(minChunks, idChunks.length * 2);
+        int[][] ids = Arrays.copyOf(idChunks, length);
+        int[][] items = Arrays.copyOf(itemChunks, length);
+        int[][] quantities = Arrays.copyOf(quantityChunks, length);
+        long[][] times = Arrays.copyOf(timeChunks, length);
+        timeChunks = times;
+        quantityChunks = quantities;
+        itemChunks = items;
+        idChunks = ids;
+    }
+
+    private int codeFor(String itemName) {
+        Integer code = codes.get(itemName);
+        if (code == null) {
+            code = nameCount;
+            if (nameCount == names.length) {
+                names = Arrays.copyOf(names, nameCount * 2);
+            }
+            names[nameCount++] = itemName;
+            codes.put(itemName, code);
+        }
+        return code;
+    }
+
+    /**
+     * Number of records.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Code of an item name, or -1 if no record has that item.
+     */
+    public synchronized int codeOf(String itemName) {
+        Integer code = codes.get(itemName);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Number of distinct item names; codes run from 0 to this minus one.
+     */
+    public synchronized int itemCount() {
+        return nameCount;
+    }
+
+    public String nameOf(int itemCode) {
+        return names[itemCode];
+    }
+
+    public int getId(int row) {
+        return idChunks[row >> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public int getItemCode(int row) {
+        return itemChunks[row >> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public String getItemName(int row) {
+        return names[getItemCode(row)];
+    }
+
+    public int getQuantity(int row) {
+        return quantityChunks[row >> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public long getTimestamp(int row) {
+        return timeChunks[row >> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    /**
+     * Calls the handler for every record in order.
+     */
+    public void forEach(RowHandler handler) {
+        int count = size;
+        for (int chunk = 0; chunk << CHUNK_BITS < count; chunk++) {
+            int[] ids = idChunks[chunk];
+            int[] items = itemChunks[chunk];
+            int[] quantities = quantityChunks[chunk];
+            long[] times = timeChunks[chunk];
+            int end = Math.min(CHUNK_SIZE, count - (chunk << CHUNK_BITS));
+            for (int i = 0; i < end; i++) {
+                handler.row(ids[i], items[i], quantities[i], times[i]);
+            }
+        }
+    }
+
+    /**
+     * Total quantity of each item code, summed in one pass over the quantity and item columns.
+     *
+     * @return array indexed by item code
+     */
+    public long[] quantityByItem() {
+        int count = size;
+        long[] totals = new long[itemCount()];
+        for (int chunk = 0; chunk << CHUNK_BITS < count; chunk++) {
+            int[] items = itemChunks[chunk];
+            int[] quantities = quantityChunks[chunk];
+            int end = Math.min(CHUNK_SIZE, count - (chunk << CHUNK_BITS));
+            for (int i = 0; i < end; i++) {
+                totals[items[i]] += quantities[i];
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Total quantity of one item between two times (inclusive start, exclusive end).
+     */
+    public long quantityBetween(String itemName, long from, long to) {
+        int code = codeOf(itemName);
+        if (code < 0) {
+            return 0;
+        }
+        int count = size;
+        long total = 0;
+        for (int chunk = 0; chunk << CHUNK_BITS < count; chunk++) {
+            int[] items = itemChunks[chunk];
+            int[] quantities = quantityChunks[chunk];
+            long[] times = timeChunks[chunk];
+            int end = Math.min(CHUNK_SIZE, count - (chunk << CHUNK_BITS));
+            for (int i = 0; i < end; i++) {
+                if (items[i] == code && times[i] >= from && times[i] < to) {
+                    total += quantities[i];
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Builds {@code Order} objects for a range of records, for code that needs objects.
+     */
+    public ArrayList<Order> orders(int fromRow, int toRow) {
+        ArrayList<Order> orders = new ArrayList<>(toRow - fromRow);
+        for (int row = fromRow; row < toRow; row++) {
+            orders.add(new Order(getId(row), getItemName(row), getQuantity(row), getTimestamp(row)));
+        }
+        return orders;
+    }
+
+    /**
+     * Builds {@code Delivery} objects for a range of records, for code that needs objects.
+     */
+    public ArrayList<Delivery> deliveries(int fromRow, int toRow) {
+        ArrayList<Delivery> deliveries = new ArrayList<>(toRow - fromRow);
+        for (int row = fromRow; row < toRow; row++) {
+            deliveries.add(new Delivery(getId(row), getItemName(row), getQuantity(row), getTimestamp(row)));
+        }
+        return deliveries;
+    }
+}
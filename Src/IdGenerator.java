@@ -0,0 +1,119 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe generator of order and delivery ids.
+ *
+ * <p>Ids come from an atomic counter, so any number of threads can take ids at once without
+ * ever getting the same one. Ids are reserved in blocks: before handing out any id of a new
+ * block, the end of the block (the high-water mark) is saved to a small file and forced to
+ * disk. After a restart the generator carries on from the saved mark, so it never hands out
+ * an id that might already have been used, and startup reads one number instead of looking
+ * through the history. Ids left unused at the end of a block are skipped.
+ *
+ * <p>The file holds the high-water mark as a single line of text and is replaced atomically.
+ */
+public class IdGenerator {
+
+    private static final int BLOCK_SIZE = 1000;
+
+    private final File file;
+    private final AtomicInteger next;
+
+    /**
+     * Ids below this have been reserved in the file and may be handed out.
+     */
+    private volatile int reserved;
+
+    private IdGenerator(File file, int first, int reserved) {
+        this.file = file;
+        this.next = new AtomicInteger(first);
+        this.reserved = reserved;
+    }
+
+    /**
+     * Generator that is not saved anywhere, for tools and tests.
+     */
+    public static IdGenerator inMemory(int first) {
+        return new IdGenerator(null, first, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Opens a generator from its high-water mark file.
+     *
+     * @param file     high-water mark file, created if missing
+     * @param atLeast  lowest id that may be handed out, e.g. one past the last id in the journal;
+     *                 used when the file is missing or behind
+     */
+    public static IdGenerator open(File file, int atLeast) throws IOException {
+        int mark = 0;
+        if (file.exists()) {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+            try {
+                mark = Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                //recoverable, the journal still says which ids were used
+                Metrics.error("ids", new IOException(file.getName() + " is damaged, starting from the journal", e));
+            }
+        }
+        int first = Math.max(mark, atLeast);
+        return new IdGenerator(file, first, first);
+    }
+
+    /**
+     * Hands out the next id.
+     */
+    public int next() {
+        int id = next.getAndIncrement();
+        if (id >= reserved) {
+            reserve(id);
+        }
+        return id;
+    }
+
+    /**
+     * Makes sure the next id handed out is at least {@code id}. Never moves backwards.
+     */
+    public void advanceTo(int id) {
+        next.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Id the next call to {@link #next()} will return, if no other thread gets there first.
+     */
+    public int peek() {
+        return next.get();
+    }
+
+    /**
+     * Saves a new high-water mark covering {@code id}. Threads that need an id of the new
+     * block wait here until it is on disk.
+     */
+    private synchronized void reserve(int id) {
+        if (id < reserved) {
+            return; //another thread reserved it while we waited
+        }
+        int mark = id + BLOCK_SIZE;
+        try {
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.wrap((mark + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+                channel.force(true);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //ids stay unique in this run; after a restart the journal's last id is used as well
+            Metrics.error("ids", e);
+        }
+        reserved = mark;
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.table.TableRowSorter;
+
+/**
+ * Micro-benchmark suite for the hot paths of the inventory system, run at several
+ * catalog sizes so regressions can be tracked from release to release.
+ *
+ * <p>Benchmarks:
+ * <ul>
+ *   <li>{@code init.snapshotLoad} - opening and loading {@code inventory.bin}, what {@code Main.init} does</li>
+ *   <li>{@code loadOrders.parse} - reading an order journal with {@code size} records</li>
+ *   <li>{@code updInv.lookup} - name to id lookup plus stock update, what each {@code UpdInv} does</li>
+ *   <li>{@code saveUpdatedInv.slotWrite} - writing one item's slot to the snapshot and flushing</li>
+ *   <li>{@code saveOrders.append} - appending one order to the journal (includes the fsync)</li>
+ *   <li>{@code renderer.quantityCell} - {@code CustomCellRenderer} for one quantity cell (a status lookup)</li>
+ *   <li>{@code table.refreshAll} - full {@code ListInventory} table refresh with a quantity sort</li>
+ *   <li>{@code table.rowUpdate} - one stock change reaching the table as a single-row update</li>
+ * </ul>
+ *
+ * <p>Each benchmark is warmed up, then measured over several timed iterations. Results go to
+ * the console and, as a JSON array (benchmark, size, score in ns/op, error, iterations), to a
+ * results file so runs can be compared by a script.
+ *
+ * <p>Usage:
+ * <pre>
+ * java InventoryBenchmark [sizes=7,1000,100000,1000000] [out=bench-results.json] [iterationMillis=200]
+ * </pre>
+ */
+public class InventoryBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+
+    /**
+     * One invocation of the code being measured.
+     */
+    private interface Op {
+        void run(int i) throws Exception;
+    }
+
+    private final long iterationNanos;
+    private final ArrayList<String> results = new ArrayList<>();
+
+    private InventoryBenchmark(long iterationMillis) {
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String sizes = "7,1000,100000,1000000";
+        String out = "bench-results.json";
+        long iterationMillis = 200;
+        for (String arg : args) {
+            if (arg.startsWith("sizes=")) {
+                sizes = arg.substring(6);
+            } else if (arg.startsWith("out=")) {
+                out = arg.substring(4);
+            } else if (arg.startsWith("iterationMillis=")) {
+                iterationMillis = Long.parseLong(arg.substring(16));
+            }
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        InventoryBenchmark bench = new InventoryBenchmark(iterationMillis);
+        System.out.printf("%-28s %9s %16s %14s%n", "benchmark", "size", "ns/op", "error");
+        File dir = Files.createTempDirectory("inventory-bench").toFile();
+        try {
+            for (String size : sizes.split(",")) {
+                bench.runAll(Integer.parseInt(size.trim()), dir);
+            }
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+        bench.writeResults(out);
+        System.out.println("Results written to " + out);
+    }
+
+    private void runAll(int size, File dir) throws Exception {
+        InventoryStore store = new InventoryStore();
+        String[] names = new String[size];
+        for (int id = 0; id < size; id++) {
+            names[id] = "Item" + id;
+            store.add(id, names[id], 25);
+        }
+
+        //Main.init
+        File snapshotFile = new File(dir, "inventory-" + size + ".bin");
+        InventorySnapshot.create(snapshotFile, store).close();
+        measure("init.snapshotLoad", size, i -> {
+            InventorySnapshot snapshot = InventorySnapshot.open(snapshotFile);
+            snapshot.load(new InventoryStore());
+            snapshot.close();
+        });
+
+        //Main.loadOrders
+        File journalFile = new File(dir, "orders-" + size + ".txt");
+        try (PrintWriter writer = new PrintWriter(journalFile)) {
+            for (int i = 0; i < size; i++) {
+                writer.println(new Order(i + 1, names[i % size], 1 + i % 9, 1_700_000_000_000L + i));
+            }
+        }
+        long[] sink = new long[1];
+        measure("loadOrders.parse", size, i -> OrderJournal.read(journalFile,
+                (id, itemName, quantity, timestamp) -> sink[0] += quantity));
+
+        //UpdInv
+        measure("updInv.lookup", size, i -> {
+            int id = store.indexOf(names[i % size]);
+            store.addQuantity(id, (i & 1) == 0 ? 1 : -1);
+        });
+
+        //saveUpdatedInvToFile
+        InventorySnapshot snapshot = InventorySnapshot.open(snapshotFile);
+        measure("saveUpdatedInv.slotWrite", size, i -> {
+            int id = i % size;
+            snapshot.writeQuantity(id, store.getQuantity(id), i + 1);
+            snapshot.force();
+        });
+        snapshot.close();
+
+        //saveOrdersToFile
+        OrderJournal journal = new OrderJournal(new File(dir, "append-" + size + ".txt").getPath());
+        measure("saveOrders.append", size, i -> journal.append(new Order(names[i % size], 1).toString()));
+
+        //CustomCellRenderer and ListInventory table
+        InventoryTableModel model = new InventoryTableModel(store);
+        JTable table = new JTable(model);
+        TableRowSorter<InventoryTableModel> sorter = new TableRowSorter<>(model);
+        table.setRowSorter(sorter);
+        CustomCellRenderer renderer = new CustomCellRenderer(new StockAlerts(store, new File(dir, "alerts.txt")));
+        measure("renderer.quantityCell", size, i -> {
+            int row = i % size;
+            renderer.getTableCellRendererComponent(table, model.getValueAt(row, 2), false, false, row, 2);
+        });
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(2, SortOrder.ASCENDING)));
+        measure("table.refreshAll", size, i -> SwingUtilities.invokeAndWait(model::fireTableDataChanged));
+        measure("table.rowUpdate", size, i -> SwingUtilities.invokeAndWait(() -> store.setQuantity(i % size, i & 63)));
+        model.detach();
+    }
+
+    /**
+     * Warms up and then measures an operation, recording the average time per call.
+     */
+    private void measure(String name, int size, Op op) throws Exception {
+        int counter = 0;
+        for (int w = 0; w < WARMUP_ITERATIONS; w++) {
+            long end = System.nanoTime() + iterationNanos;
+            while (System.nanoTime() < end) {
+                op.run(counter++);
+            }
+        }
+
+        double[] scores = new double[MEASURE_ITERATIONS];
+        for (int m = 0; m < MEASURE_ITERATIONS; m++) {
+            long calls = 0;
+            long start = System.nanoTime();
+            long end = start + iterationNanos;
+            long now;
+            do {
+                op.run(counter++);
+                calls++;
+                now = System.nanoTime();
+            } while (now < end);
+            scores[m] = (now - start) / (double) calls;
+        }
+
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double error = Math.sqrt(variance / (scores.length - 1));
+
+        System.out.printf("%-28s %9d %16.1f %14.1f%n", name, size, mean, error);
+        results.add(String.format(Locale.ROOT,
+                "  {\"benchmark\": \"%s\", \"size\": %d, \"mode\": \"avgt\", \"unit\": \"ns/op\", "
+                        + "\"score\": %.3f, \"error\": %.3f, \"iterations\": %d}",
+                name, size, mean, error, MEASURE_ITERATIONS));
+    }
+
+    private void writeResults(String fileName) throws IOException {
+        try (PrintWriter out = new PrintWriter(fileName)) {
+            out.println("[");
+            out.println(String.join(",\n", results));
+            out.println("]");
+        }
+    }
+}
@@ -0,0 +1,483 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * The complete history of inventory changes, from which the stock of every item at any
+ * point in time can be worked out.
+ *
+ * <p>{@code inventory.wal} already holds every order, delivery, edit and transfer as one
+ * ordered stream of events, but it is emptied at each checkpoint. Before the checkpoint
+ * empties it, its records are appended to {@code events.log}, which is never truncated.
+ * The inventory in {@code inventory.bin} is then just the sum of these events, and this
+ * class can rebuild it from them to check that the two agree.
+ *
+ * <p>Every {@link #SNAPSHOT_EVENTS} events, and at least once a day while stock is
+ * changing, the stock of every item is appended to {@code events.snap} as a snapshot,
+ * tagged with the last event it includes. The stock at a time T is the latest snapshot
+ * taken before T plus the events after it up to T. For times before the first snapshot,
+ * the events between T and that snapshot are taken off instead, so a rebuild never reads
+ * more than the events between two snapshots.
+ *
+ * <p>Events hold changes (deltas), so they add up in any order. Replay splits the events
+ * into chunks, sums each chunk per item on its own core, and then adds up the chunks
+ * per item in parallel. Events are read from memory-mapped chunks of the file, so
+ * replaying years of events takes seconds.
+ *
+ * <p>File layout:
+ * <pre>
+ * events.log  header (16 bytes): magic, version, reserved
+ *             event (40 bytes): the {@code InventoryWal} record, with the log's sequence number
+ * events.snap snapshot: magic, last event seq, timestamp, item count, quantity per item id, CRC32
+ * </pre>
+ *
+ * <p>Usage:
+ * <pre>
+ * java InventoryEvents at 2026-03-01T18:00   stock of every item at that time
+ * java InventoryEvents verify                rebuild the stock from the events, compare with inventory.bin and .wal
+ * </pre>
+ */
+public class InventoryEvents {
+
+    public static final int MAGIC = 0x424B4556; //"BKEV"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = InventoryWal.RECORD_SIZE;
+
+    private static final int SNAPSHOT_MAGIC = 0x424B5353; //"BKSS"
+    private static final int SNAPSHOT_HEADER = 24;
+
+    /**
+     * Take a snapshot once this many events have been added since the last one.
+     */
+    public static final long SNAPSHOT_EVENTS = 100_000;
+    /**
+     * Take a snapshot if stock has changed and the last one is older than this.
+     */
+    public static final long SNAPSHOT_MILLIS = 24 * 60 * 60 * 1000L;
+
+    //replay splits the events into chunks of at least this many events, mapped at most this many bytes at a time
+    private static final int MIN_CHUNK_EVENTS = 1 << 16;
+    private static final long MAX_MAPPED_BYTES = 1L << 30;
+
+    private static final Metrics.Timer replays = Metrics.timer("events.replay");
+
+    /**
+     * Where a snapshot is in {@code events.snap} and what it covers.
+     */
+    private static class Snapshot {
+        final long seq;
+        final long timestamp;
+        final int count;
+        final long offset;
+
+        Snapshot(long seq, long timestamp, int count, long offset) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.count = count;
+            this.offset = offset;
+        }
+    }
+
+    private final RandomAccessFile logFile;
+    private final FileChannel log;
+    private final RandomAccessFile snapshotFile;
+    private final FileChannel snapshots;
+    private final ArrayList<Snapshot> index = new ArrayList<>();
+    private long eventCount;
+    private long lastSeq;
+    private long eventsSinceSnapshot;
+
+    private InventoryEvents(File logName, File snapshotName) throws IOException {
+        logFile = new RandomAccessFile(logName, "rw");
+        log = logFile.getChannel();
+        snapshotFile = new RandomAccessFile(snapshotName, "rw");
+        snapshots = snapshotFile.getChannel();
+    }
+
+    /**
+     * Opens the event log and its snapshots, creating them if they don't exist. Events or
+     * snapshots torn by a crash are cut off; they were never confirmed to a checkpoint, so
+     * they are still in {@code inventory.wal} and are archived again.
+     */
+    public static InventoryEvents open(File logName, File snapshotName) throws IOException {
+        InventoryEvents events = new InventoryEvents(logName, snapshotName);
+        try {
+            events.openLog(logName);
+            events.openSnapshots();
+            return events;
+        } catch (IOException e) {
+            events.close();
+            throw e;
+        }
+    }
+
+    private void openLog(File name) throws IOException {
+        if (log.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(0);
+            header.flip();
+            log.write(header, 0);
+            log.truncate(HEADER_SIZE);
+            log.force(true);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            log.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(name.getName() + " is not an inventory event log");
+            }
+            if (header.getInt() != VERSION) {
+                throw new IOException("Unsupported inventory event log version");
+            }
+        }
+        eventCount = (log.size() - HEADER_SIZE) / RECORD_SIZE;
+        //the last batch may be torn, drop damaged events from the end
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        while (eventCount > 0) {
+            record.clear();
+            log.read(record, position(eventCount - 1));
+            crc.reset();
+            crc.update(record.array(), 0, RECORD_SIZE - 4);
+            if (record.getInt(RECORD_SIZE - 4) == (int) crc.getValue()) {
+                lastSeq = record.getLong(0);
+                break;
+            }
+            eventCount--;
+        }
+        log.truncate(position(eventCount));
+    }
+
+    private void openSnapshots() throws IOException {
+        long offset = 0;
+        long size = snapshots.size();
+        ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+        while (offset + SNAPSHOT_HEADER <= size) {
+            header.clear();
+            snapshots.read(header, offset);
+            header.flip();
+            if (header.getInt() != SNAPSHOT_MAGIC) {
+                break;
+            }
+            long seq = header.getLong();
+            long timestamp = header.getLong();
+            int count = header.getInt();
+            long length = SNAPSHOT_HEADER + 4L * count + 4;
+            if (count < 0 || offset + length > size || seq > lastSeq) {
+                break; //torn, or taken after events that did not survive
+            }
+            ByteBuffer body = ByteBuffer.allocate((int) length);
+            snapshots.read(body, offset);
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, (int) length - 4);
+            if (body.getInt((int) length - 4) != (int) crc.getValue()) {
+                break;
+            }
+            index.add(new Snapshot(seq, timestamp, count, offset));
+            offset += length;
+        }
+        snapshots.truncate(offset);
+        eventsSinceSnapshot = index.isEmpty() ? eventCount : eventCount - firstAfter(last().seq, eventCount);
+    }
+
+    /**
+     * Appends records from {@code inventory.wal} that are not in the log yet, and takes a
+     * snapshot if one is due. Called by a checkpoint while no changes are being made, so
+     * {@code store} holds exactly the stock after the last of the records.
+     */
+    public synchronized void archive(List<InventoryWal.Record> records, InventoryStore store) throws IOException {
+        int fresh = 0;
+        for (InventoryWal.Record record : records) {
+            if (record.seq > lastSeq) { //a crash after archiving but before the checkpoint leaves them in the wal
+                fresh++;
+            }
+        }
+        if (fresh > 0) {
+            ByteBuffer buffer = ByteBuffer.allocate(fresh * RECORD_SIZE);
+            CRC32 crc = new CRC32();
+            for (InventoryWal.Record r : records) {
+                if (r.seq > lastSeq) {
+                    InventoryWal.putRecord(buffer, crc, r.seq, r.timestamp, r.kind, r.itemId, r.delta, r.recordId,
+                            r.quantityAfter);
+                }
+            }
+            buffer.flip();
+            long position = position(eventCount);
+            while (buffer.hasRemaining()) {
+                position += log.write(buffer, position);
+            }
+            log.force(false);
+            eventCount += fresh;
+            lastSeq = records.get(records.size() - 1).seq;
+            eventsSinceSnapshot += fresh;
+        }
+        boolean due = index.isEmpty() || eventsSinceSnapshot >= SNAPSHOT_EVENTS
+                || (eventsSinceSnapshot > 0 && System.currentTimeMillis() - last().timestamp >= SNAPSHOT_MILLIS);
+        if (due) {
+            writeSnapshot(store);
+        }
+    }
+
+    private void writeSnapshot(InventoryStore store) throws IOException {
+        int count = store.size();
+        int length = SNAPSHOT_HEADER + 4 * count + 4;
+        long timestamp = System.currentTimeMillis();
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(SNAPSHOT_MAGIC).putLong(lastSeq).putLong(timestamp).putInt(count);
+        for (int id = 0; id < count; id++) {
+            buffer.putInt(store.contains(id) ? store.getQuantity(id) : 0);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length - 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        long offset = snapshots.size();
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += snapshots.write(buffer, position);
+        }
+        snapshots.force(false);
+        index.add(new Snapshot(lastSeq, timestamp, count, offset));
+        eventsSinceSnapshot = 0;
+    }
+
+    /**
+     * Stock of each item id at the given time (milliseconds since the epoch), counting every
+     * event at or before it.
+     *
+     * @throws IllegalStateException if no snapshot has been taken yet
+     */
+    public int[] stateAt(long timestamp) throws IOException {
+        Snapshot base = null;
+        Snapshot next = null;
+        long events;
+        synchronized (this) {
+            if (index.isEmpty()) {
+                throw new IllegalStateException("No inventory snapshot has been taken yet");
+            }
+            for (Snapshot snapshot : index) {
+                if (snapshot.timestamp <= timestamp) {
+                    base = snapshot;
+                } else {
+                    next = snapshot;
+                    break;
+                }
+            }
+            events = eventCount;
+        }
+        long start = System.nanoTime();
+        try {
+            if (base == null) {
+                //before the first snapshot: take off the events between the time and the snapshot
+                return replay(readSnapshot(next), 0, firstAfter(next.seq, events), timestamp, false);
+            }
+            long to = next == null ? events : firstAfter(next.seq, events);
+            return replay(readSnapshot(base), firstAfter(base.seq, events), to, timestamp, true);
+        } finally {
+            replays.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stock of each item id after every event in the log.
+     */
+    public int[] current() throws IOException {
+        return stateAt(Long.MAX_VALUE);
+    }
+
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public synchronized int getSnapshotCount() {
+        return index.size();
+    }
+
+    public synchronized void close() throws IOException {
+        log.close();
+        logFile.close();
+        snapshots.close();
+        snapshotFile.close();
+    }
+
+    /**
+     * Adds up the events {@code [from, to)} on top of {@code base}: forward adds the events at
+     * or before {@code timestamp}, backward takes off the ones after it.
+     */
+    private int[] replay(int[] base, long from, long to, long timestamp, boolean forward) throws IOException {
+        long total = to - from;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int chunks = (int) Math.max(1, Math.min(cores * 4L, total / MIN_CHUNK_EVENTS));
+        List<int[]> sums;
+        try {
+            sums = IntStream.range(0, chunks).parallel()
+                    .mapToObj(chunk -> sumChunk(from + total * chunk / chunks, from + total * (chunk + 1) / chunks,
+                            timestamp, forward))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        int items = base.length;
+        for (int[] sum : sums) {
+            items = Math.max(items, sum.length);
+        }
+        //each item's chunk sums are added up on their own, items in parallel
+        int[] state = new int[items];
+        IntStream.range(0, items).parallel().forEach(id -> {
+            int quantity = id < base.length ? base[id] : 0;
+            for (int[] sum : sums) {
+                if (id < sum.length) {
+                    quantity += sum[id];
+                }
+            }
+            state[id] = quantity;
+        });
+        return state;
+    }
+
+    /**
+     * Per-item sum of the events {@code [from, to)} that count towards the time.
+     */
+    private int[] sumChunk(long from, long to, long timestamp, boolean forward) {
+        int[] sum = new int[64];
+        int items = 0;
+        byte[] bytes = new byte[RECORD_SIZE];
+        ByteBuffer record = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        long perMap = MAX_MAPPED_BYTES / RECORD_SIZE;
+        try {
+            for (long first = from; first < to; first += perMap) {
+                int count = (int) Math.min(perMap, to - first);
+                MappedByteBuffer map = log.map(FileChannel.MapMode.READ_ONLY, position(first), (long) count * RECORD_SIZE);
+                for (int i = 0; i < count; i++) {
+                    map.get(i * RECORD_SIZE, bytes);
+                    crc.reset();
+                    crc.update(bytes, 0, RECORD_SIZE - 4);
+                    if (record.getInt(RECORD_SIZE - 4) != (int) crc.getValue()) {
+                        throw new IOException("Damaged inventory event " + (first + i));
+                    }
+                    long eventTime = record.getLong(8);
+                    if (forward == (eventTime <= timestamp)) {
+                        int itemId = record.getInt(20);
+                        if (itemId >= sum.length) {
+                            sum = Arrays.copyOf(sum, Math.max(itemId + 1, sum.length * 2));
+                        }
+                        items = Math.max(items, itemId + 1);
+                        sum[itemId] += forward ? record.getInt(24) : -record.getInt(24);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return items == sum.length ? sum : Arrays.copyOf(sum, items);
+    }
+
+    private int[] readSnapshot(Snapshot snapshot) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(4 * snapshot.count);
+        snapshots.read(body, snapshot.offset + SNAPSHOT_HEADER);
+        body.flip();
+        int[] quantities = new int[snapshot.count];
+        body.asIntBuffer().get(quantities);
+        return quantities;
+    }
+
+    /**
+     * Index of the first event with a sequence number above {@code seq}, searching the first
+     * {@code events} events. Sequence numbers only go up, so this is a binary search.
+     */
+    private long firstAfter(long seq, long events) throws IOException {
+        long low = 0;
+        long high = events;
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            buffer.clear();
+            log.read(buffer, position(middle));
+            if (buffer.getLong(0) <= seq) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private Snapshot last() {
+        return index.get(index.size() - 1);
+    }
+
+    private static long position(long event) {
+        return HEADER_SIZE + event * RECORD_SIZE;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || !(args[0].equals("verify") || (args[0].equals("at") && args.length == 2))) {
+            System.out.println("Usage: java InventoryEvents at yyyy-MM-ddTHH:mm | verify");
+            return;
+        }
+        InventoryStore store = new InventoryStore();
+        InventorySnapshot inventory = InventorySnapshot.open(new File("inventory.bin"));
+        inventory.load(store);
+        InventoryEvents events = open(new File("events.log"), new File("events.snap"));
+
+        long start = System.nanoTime();
+        int[] state;
+        if (args[0].equals("at")) {
+            long time = LocalDateTime.parse(args[1]).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            state = events.stateAt(time);
+        } else {
+            state = events.current();
+            //changes since the last checkpoint are only in the wal so far
+            InventoryWal wal = InventoryWal.open(new File("inventory.wal"));
+            for (InventoryWal.Record record : wal.readTail()) {
+                if (record.seq > events.getLastSeq()) {
+                    if (record.itemId >= state.length) {
+                        state = Arrays.copyOf(state, record.itemId + 1);
+                    }
+                    state[record.itemId] += record.delta;
+                }
+            }
+            wal.close();
+        }
+        System.out.printf("Replayed %d events in %d ms%n", events.getEventCount(), (System.nanoTime() - start) / 1_000_000);
+
+        int differences = 0;
+        for (int id = 0; id < store.size(); id++) {
+            if (!store.contains(id)) {
+                continue;
+            }
+            int fromEvents = id < state.length ? state[id] : 0;
+            if (args[0].equals("at")) {
+                System.out.printf("%6d %-32s %d%n", id, store.getName(id), fromEvents);
+            } else if (fromEvents != store.getQuantity(id)) {
+                differences++;
+                System.out.printf("%6d %-32s inventory.bin %d, events %d%n", id, store.getName(id),
+                        store.getQuantity(id), fromEvents);
+            }
+        }
+        if (args[0].equals("verify")) {
+            System.out.println(differences == 0 ? "inventory.bin and inventory.wal agree with the events"
+                    : differences + " items differ from the events");
+        }
+        events.close();
+        inventory.close();
+    }
+}
@@ -1,7 +1,8 @@
-
 /**
  * The {@code InventoryItem} class represents an item in an inventory system.
- * Each item has a unique identifier, a name, and a quantity. This class 
+ * Each item has a unique identifier, a name, and a quantity. An {@code InventoryItem}
+ * is a view onto an {@link InventoryStore}: the name and quantity are read from and
+ * written to the store, which is the source of truth. This class 
  * implements the {@code Comparable} interface to allow sorting of items 
  * based on their unique identifier in ascending order. 
  * 
@@ -18,58 +19,48 @@
 public class InventoryItem implements Comparable<InventoryItem> {
     
     /**
-     * Name of the inventory item.
-     */
-    private String name;
-
-    /**
-     * The current stock quantity of the item.
+     * Store holding the name and quantity of the item.
      */
-    private int quantity;
+    private final InventoryStore store;
 
     /**
      * Unique identifier for the inventory item.
      */
-    private int id; //can be final
+    private final int id;
 
 
     /**
-     * Constructs an InventoryItem with the specified details.
+     * Constructs a view onto an item that is already in the store.
+     * Use {@link InventoryStore#add(int, String, int)} to create new items.
      *
-     * @param name      Name of the item
-     * @param quantity  Initial quantity in stock  
+     * @param store     Store holding the item
      * @param id        Unique identifier of the item  
      */
-    public InventoryItem(String name, int quantity, int id) {
-        this.name = name;
-        this.quantity = quantity;
+    public InventoryItem(InventoryStore store, int id) {
+        this.store = store;
         this.id = id; 
     }
 
     public String getName() {
-        return name;
+        return store.getName(id);
     }
 
     public void setName(String name) {
-        this.name = name;
+        store.setName(id, name);
     }
 
     public int getQuantity() {
-        return quantity;
+        return store.getQuantity(id);
     }
 
     public void setQuantity(int quantity) {
-        this.quantity = quantity;
+        store.setQuantity(id, quantity);
     }
 
     public int getId() {
         return id;
     }
 
-    // public void setId(int id) {
-    //     this.id = id;
-    // }
-
     public int compareTo(InventoryItem other){
        return other.getId() - this.getId();   
     }
@@ -81,8 +72,6 @@ public class InventoryItem implements Comparable<InventoryItem> {
      */
     @Override
     public String toString() {
-        return "ID: " + id + " | Name: " + name + " | Quantity: " + quantity;
+        return "ID: " + id + " | Name: " + getName() + " | Quantity: " + getQuantity();
     }
 }
-
-
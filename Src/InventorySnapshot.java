@@ -0,0 +1,341 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code InventorySnapshot} class stores the inventory in a fixed-width binary file
+ * that is memory mapped with a {@link FileChannel}. Every item has its own slot at
+ * {@code HEADER_SIZE + id * RECORD_SIZE}, so loading reads the quantities straight out of
+ * the mapped file without any text parsing, and changing one quantity only rewrites
+ * that item's slot instead of the whole file.
+ *
+ * <p>File layout:
+ * <pre>
+ * header (32 bytes): magic, version, record size, slot capacity, header CRC32, reserved
+ * slot   (80 bytes): flags, name length, name (32 bytes UTF-8), name CRC32, padding,
+ *                    two quantity cells (16 bytes each): WAL sequence number, quantity, cell CRC32
+ * </pre>
+ * Each slot carries its own checksums so that a single slot can be rewritten without
+ * recomputing a checksum over the whole file.
+ *
+ * <p>A quantity change is written to the older of the slot's two cells, so the previous
+ * value is still there if a crash tears the write; loading takes the newest cell whose
+ * checksum matches. Cells are 16-byte aligned, so one never straddles a page. The name has
+ * its own checksum and is only written when an item is added, so a torn quantity never
+ * loses the item. Files of the first version (48-byte slots) are converted on open.
+ *
+ * <p>Each cell also holds the sequence number of the last {@code InventoryWal} record its
+ * quantity includes. It is written with the quantity, in the same forced write, so recovery
+ * can tell which logged changes a slot already has, whether or not the checkpoint that
+ * wrote it got as far as truncating the log.
+ */
+public class InventorySnapshot {
+
+    public static final int MAGIC = 0x424B4956; //"BKIV"
+    public static final int VERSION = 2;
+
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 80;
+    public static final int MAX_NAME_BYTES = 32;
+
+    //header field offsets
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_RECORD_SIZE = 8;
+    private static final int H_CAPACITY = 12;
+    private static final int H_CRC = 16;
+
+    //slot field offsets
+    private static final int S_FLAGS = 0;
+    private static final int S_NAME_LENGTH = 4;
+    private static final int S_NAME = 8;
+    private static final int S_NAME_CRC = 40;
+    private static final int S_CELLS = 48;
+
+    //quantity cell field offsets
+    private static final int CELL_SIZE = 16;
+    private static final int C_SEQ = 0;
+    private static final int C_QUANTITY = 8;
+    private static final int C_CRC = 12;
+
+    //first version: one 48-byte slot of flags, quantity, name length, name and slot CRC32
+    private static final int V1_RECORD_SIZE = 48;
+    private static final int V1_QUANTITY = 4;
+    private static final int V1_NAME_LENGTH = 8;
+    private static final int V1_NAME = 10;
+    private static final int V1_CRC = 44;
+
+    private static final int FLAG_PRESENT = 1;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private long newestSeq;
+
+    private InventorySnapshot(File file, RandomAccessFile raf) {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Opens and checks an existing snapshot file.
+     *
+     * @throws IOException if the file cannot be read or its header is damaged
+     */
+    public static InventorySnapshot open(File file) throws IOException {
+        InventorySnapshot snapshot = new InventorySnapshot(file, new RandomAccessFile(file, "rw"));
+        try {
+            long length = snapshot.channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException(file.getName() + " is too short to be an inventory snapshot");
+            }
+            snapshot.buffer = snapshot.channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            if (snapshot.checkHeader() == 1) {
+                return snapshot.convertVersion1();
+            }
+            return snapshot;
+        } catch (IOException e) {
+            snapshot.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Rewrites a first-version file in the current layout. The new file is built next to it
+     * and renamed over it, so a crash leaves one or the other.
+     */
+    private InventorySnapshot convertVersion1() throws IOException {
+        InventoryStore store = new InventoryStore();
+        byte[] nameBytes = new byte[MAX_NAME_BYTES];
+        for (int id = 0; id < capacity; id++) {
+            int slot = HEADER_SIZE + id * V1_RECORD_SIZE;
+            if ((buffer.getInt(slot + S_FLAGS) & FLAG_PRESENT) == 0 || buffer.getInt(slot + V1_CRC) != crc(slot, V1_CRC)) {
+                continue;
+            }
+            int nameLength = buffer.getShort(slot + V1_NAME_LENGTH);
+            buffer.get(slot + V1_NAME, nameBytes, 0, nameLength);
+            store.add(id, new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8), buffer.getInt(slot + V1_QUANTITY));
+        }
+        close();
+        File converted = new File(file.getPath() + ".tmp");
+        create(converted, store).close();
+        Files.move(converted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    /**
+     * Creates a new snapshot file holding every item in the store, replacing any old file.
+     */
+    public static InventorySnapshot create(File file, InventoryStore store) throws IOException {
+        InventorySnapshot snapshot = new InventorySnapshot(file, new RandomAccessFile(file, "rw"));
+        try {
+            snapshot.channel.truncate(0);
+            snapshot.remap(Math.max(store.size(), 16));
+            for (int id = 0; id < store.size(); id++) {
+                if (store.contains(id)) {
+                    snapshot.writeItem(id, store.getName(id), store.getQuantity(id));
+                }
+            }
+            snapshot.force();
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            snapshot.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the version of the file
+     */
+    private int checkHeader() throws IOException {
+        if (buffer.getInt(H_MAGIC) != MAGIC) {
+            throw new IOException(file.getName() + " is not an inventory snapshot");
+        }
+        int version = buffer.getInt(H_VERSION);
+        if (version != VERSION && version != 1) {
+            throw new IOException("Unsupported inventory snapshot version " + version);
+        }
+        if (buffer.getInt(H_CRC) != headerCrc()) {
+            throw new IOException("Inventory snapshot header checksum does not match");
+        }
+        int recordSize = version == 1 ? V1_RECORD_SIZE : RECORD_SIZE;
+        if (buffer.getInt(H_RECORD_SIZE) != recordSize) {
+            throw new IOException("Unexpected inventory snapshot record size " + buffer.getInt(H_RECORD_SIZE));
+        }
+        capacity = buffer.getInt(H_CAPACITY);
+        if ((long) HEADER_SIZE + (long) capacity * recordSize > buffer.capacity()) {
+            throw new IOException("Inventory snapshot is truncated");
+        }
+        return version;
+    }
+
+    /**
+     * Loads every slot into the store. Slots whose name has a bad checksum are reported and
+     * skipped; a slot whose newest quantity is torn loads the quantity before it, and one
+     * with no good quantity at all loads 0 and is reported too.
+     *
+     * @return number of damaged slots
+     */
+    public synchronized int load(InventoryStore store) {
+        int damaged = 0;
+        byte[] nameBytes = new byte[MAX_NAME_BYTES];
+        for (int id = 0; id < capacity; id++) {
+            int slot = slotOffset(id);
+            if ((buffer.getInt(slot + S_FLAGS) & FLAG_PRESENT) == 0) {
+                continue;
+            }
+            if (buffer.getInt(slot + S_NAME_CRC) != crc(slot, S_NAME_CRC)) {
+                damaged++;
+                continue;
+            }
+            int nameLength = buffer.getShort(slot + S_NAME_LENGTH);
+            buffer.get(slot + S_NAME, nameBytes, 0, nameLength);
+            String name = new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8);
+            int cell = currentCell(slot);
+            if (cell < 0) {
+                damaged++;
+            } else {
+                newestSeq = Math.max(newestSeq, buffer.getLong(cell + C_SEQ));
+            }
+            store.add(id, name, cell < 0 ? 0 : buffer.getInt(cell + C_QUANTITY));
+        }
+        return damaged;
+    }
+
+    /**
+     * Rewrites the quantity of one item, touching only the older quantity cell of its slot.
+     *
+     * @param seq sequence number of the last logged change the quantity includes
+     */
+    public synchronized void writeQuantity(int id, int quantity, long seq) {
+        if (id >= capacity) {
+            throw new IllegalArgumentException("No slot for item id " + id + ", use writeItem");
+        }
+        int slot = slotOffset(id);
+        int current = currentCell(slot);
+        int older = current == slot + S_CELLS ? slot + S_CELLS + CELL_SIZE : slot + S_CELLS;
+        writeCell(older, seq, quantity);
+        newestSeq = Math.max(newestSeq, seq);
+    }
+
+    /**
+     * Sequence number of the last logged change included in the item's quantity, 0 if
+     * there is none or the slot has no good quantity.
+     */
+    public synchronized long coveredSeq(int id) {
+        if (id >= capacity) {
+            return 0;
+        }
+        int cell = currentCell(slotOffset(id));
+        return cell < 0 ? 0 : buffer.getLong(cell + C_SEQ);
+    }
+
+    /**
+     * Highest sequence number in any slot loaded or written so far.
+     */
+    public synchronized long getNewestSeq() {
+        return newestSeq;
+    }
+
+    /**
+     * Offset of the good cell with the highest sequence number, or -1 if neither is good.
+     */
+    private int currentCell(int slot) {
+        int best = -1;
+        for (int cell = slot + S_CELLS; cell < slot + S_CELLS + 2 * CELL_SIZE; cell += CELL_SIZE) {
+            if (buffer.getInt(cell + C_CRC) == crc(cell, C_CRC)
+                    && (best < 0 || buffer.getLong(cell + C_SEQ) > buffer.getLong(best + C_SEQ))) {
+                best = cell;
+            }
+        }
+        return best;
+    }
+
+    private void writeCell(int cell, long seq, int quantity) {
+        buffer.putLong(cell + C_SEQ, seq);
+        buffer.putInt(cell + C_QUANTITY, quantity);
+        buffer.putInt(cell + C_CRC, crc(cell, C_CRC));
+    }
+
+    /**
+     * Writes a whole slot (name and quantity), growing the file if the id is past the end.
+     */
+    public synchronized void writeItem(int id, String name, int quantity) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Item name is longer than " + MAX_NAME_BYTES + " bytes: " + name);
+        }
+        if (id >= capacity) {
+            remap(Math.max(id + 1, capacity * 2));
+        }
+        int slot = slotOffset(id);
+        buffer.putInt(slot + S_FLAGS, FLAG_PRESENT);
+        buffer.putShort(slot + S_NAME_LENGTH, (short) nameBytes.length);
+        buffer.put(slot + S_NAME, new byte[MAX_NAME_BYTES]); //clear any longer old name
+        buffer.put(slot + S_NAME, nameBytes);
+        buffer.putInt(slot + S_NAME_CRC, crc(slot, S_NAME_CRC));
+        writeCell(slot + S_CELLS, 0, quantity);
+        buffer.put(slot + S_CELLS + CELL_SIZE, new byte[CELL_SIZE]); //no older value, fails its checksum
+    }
+
+    /**
+     * Flushes changed pages of the mapping to disk.
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        channel.close();
+        raf.close();
+    }
+
+    /**
+     * Maps the file with room for {@code newCapacity} slots and rewrites the header.
+     */
+    private void remap(int newCapacity) throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * RECORD_SIZE);
+        capacity = newCapacity;
+        buffer.putInt(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putInt(H_RECORD_SIZE, RECORD_SIZE);
+        buffer.putInt(H_CAPACITY, capacity);
+        buffer.putInt(H_CRC, headerCrc());
+    }
+
+    private static int slotOffset(int id) {
+        return HEADER_SIZE + id * RECORD_SIZE;
+    }
+
+    private int headerCrc() {
+        return crc(0, H_CRC);
+    }
+
+    private int crc(int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer bytes = buffer.slice(offset, length);
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,355 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The {@code InventoryStore} class holds the stock levels for every item sold.
+ * Items are keyed by their dense item id, which is used directly as an index into
+ * primitive arrays, so looking up or changing a quantity never walks a list or
+ * boxes a value. A hash index maps item names to ids for code that only knows the name
+ * (for example the item drop downs in {@code AddOrder} and {@code AddDelivery}).
+ *
+ * <p>Storage is split into fixed-size pages that are allocated as ids are used.
+ * Growing the store only copies the small page directory, never the quantities,
+ * so it scales to hundreds of thousands of items.
+ *
+ * <p>Quantities are read and written through a {@link VarHandle}, so the store is safe to
+ * use from several threads at once. {@link #tryRemove(int, int)} tests and decrements stock
+ * in one compare-and-set step, which means two tills can never sell the same units.
+ * Different items never share a lock, so throughput grows with the number of cores.
+ *
+ * <p>Windows and other parts of the program can register a {@link Listener} to hear about
+ * every quantity change. Listeners are called on the thread that made the change.
+ *
+ * <p>{@code InventoryItem} objects handed out by {@link #item(int)} are views onto the
+ * store; the store is the source of truth for names and quantities.
+ */
+public class InventoryStore {
+
+    /**
+     * Receives changes made to the store.
+     */
+    public interface Listener {
+        /**
+         * Called after the quantity of an item changed.
+         */
+        void quantityChanged(int id, int oldQuantity, int newQuantity);
+
+        /**
+         * Called after an item was added or replaced.
+         */
+        default void itemAdded(int id) {
+        }
+    }
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS; //4096 items per page
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * Gives volatile and compare-and-set access to the elements of a quantity page.
+     */
+    private static final VarHandle QUANTITY = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * Quantity pages, indexed by {@code id >> PAGE_BITS}.
+     */
+    private volatile int[][] quantityPages = new int[1][];
+
+    /**
+     * Name pages, a null name means no item has that id.
+     */
+    private volatile String[][] namePages = new String[1][];
+
+    /**
+     * Name to id index.
+     */
+    private final ConcurrentHashMap<String, Integer> nameIndex = new ConcurrentHashMap<>();
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * One more than the highest id in the store.
+     */
+    private volatile int size;
+
+    /**
+     * Number of items in the store.
+     */
+    private volatile int itemCount;
+
+    /**
+     * Adds an item to the store, or replaces the name and quantity of an existing id.
+     *
+     * @param id        Unique, non-negative id of the item
+     * @param name      Name of the item
+     * @param quantity  Quantity in stock
+     * @return a view onto the stored item
+     */
+    public synchronized InventoryItem add(int id, String name, int quantity) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Item id cannot be negative: " + id);
+        }
+        ensurePage(id);
+        String[] names = namePages[id >> PAGE_BITS];
+        String oldName = names[id & PAGE_MASK];
+        if (oldName == null) {
+            itemCount++;
+        } else {
+            nameIndex.remove(oldName);
+        }
+        names[id & PAGE_MASK] = name;
+        nameIndex.put(name, id);
+        QUANTITY.setVolatile(quantityPages[id >> PAGE_BITS], id & PAGE_MASK, quantity);
+        if (id >= size) {
+            size = id + 1;
+        }
+        for (Listener listener : listeners) {
+            listener.itemAdded(id);
+        }
+        return new InventoryItem(this, id);
+    }
+
+    /**
+     * Makes sure the page holding {@code id} exists, growing the page directory if needed.
+     */
+    private void ensurePage(int id) {
+        int page = id >> PAGE_BITS;
+        if (page >= quantityPages.length) {
+            int newLength = Math.max(page + 1, quantityPages.length * 2);
+            int[][] quantities = new int[newLength][];
+            String[][] names = new String[newLength][];
+            System.arraycopy(quantityPages, 0, quantities, 0, quantityPages.length);
+            System.arraycopy(namePages, 0, names, 0, namePages.length);
+            //names first so a reader that can see a page of quantities can also see its names
+            namePages = names;
+            quantityPages = quantities;
+        }
+        if (quantityPages[page] == null) {
+            namePages[page] = new String[PAGE_SIZE];
+            quantityPages[page] = new int[PAGE_SIZE];
+        }
+    }
+
+    /**
+     * Returns the id of the item with the given name.
+     *
+     * @param name Name of the item
+     * @return the item id, or -1 if there is no such item
+     */
+    public int indexOf(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer id = nameIndex.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Checks whether an item with this id is in the store.
+     */
+    public boolean contains(int id) {
+        if (id < 0 || id >= size) {
+            return false;
+        }
+        String[] names = namePages[id >> PAGE_BITS];
+        return names != null && names[id & PAGE_MASK] != null;
+    }
+
+    public String getName(int id) {
+        checkId(id);
+        return namePages[id >> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    /**
+     * Renames an item, keeping the name index up to date.
+     */
+    public synchronized void setName(int id, String name) {
+        checkId(id);
+        String[] names = namePages[id >> PAGE_BITS];
+        nameIndex.remove(names[id & PAGE_MASK]);
+        names[id & PAGE_MASK] = name;
+        nameIndex.put(name, id);
+    }
+
+    public int getQuantity(int id) {
+        checkId(id);
+        return (int) QUANTITY.getVolatile(quantityPages[id >> PAGE_BITS], id & PAGE_MASK);
+    }
+
+    /**
+     * Atomically replaces the quantity of an item.
+     *
+     * @return the quantity that was replaced
+     */
+    public int setQuantity(int id, int quantity) {
+        checkId(id);
+        int old = (int) QUANTITY.getAndSet(quantityPages[id >> PAGE_BITS], id & PAGE_MASK, quantity);
+        fireChanged(id, old, quantity);
+        return old;
+    }
+
+    /**
+     * Atomically adds {@code delta} to the quantity of an item (negative to remove stock).
+     * No stock check is done, use {@link #tryRemove(int, int)} when selling.
+     *
+     * @return the new quantity
+     */
+    public int addQuantity(int id, int delta) {
+        checkId(id);
+        int old = (int) QUANTITY.getAndAdd(quantityPages[id >> PAGE_BITS], id & PAGE_MASK, delta);
+        fireChanged(id, old, old + delta);
+        return old + delta;
+    }
+
+    /**
+     * Atomically adds {@code amount} units of an item unless the quantity would no longer fit
+     * in an {@code int}, so a delivery can never wrap the stock round to a negative number.
+     *
+     * @param id      Id of the item
+     * @param amount  Number of units to add, must not be negative
+     * @return true if the stock was added, false if it would overflow
+     */
+    public boolean tryAdd(int id, int amount) {
+        checkAmount(id, amount);
+        int[] page = quantityPages[id >> PAGE_BITS];
+        int index = id & PAGE_MASK;
+        while (true) {
+            int current = (int) QUANTITY.getVolatile(page, index);
+            if (current > Integer.MAX_VALUE - amount) {
+                return false;
+            }
+            if (QUANTITY.compareAndSet(page, index, current, current + amount)) {
+                fireChanged(id, current, current + amount);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically removes {@code amount} units of an item if at least that many are in stock.
+     * The check and the decrement are one compare-and-set, so concurrent callers can never
+     * take the stock below zero.
+     *
+     * @param id      Id of the item
+     * @param amount  Number of units to remove, must not be negative
+     * @return true if the stock was removed, false if there was not enough
+     */
+    public boolean tryRemove(int id, int amount) {
+        checkAmount(id, amount);
+        int old = take(id, amount);
+        if (old < 0) {
+            return false;
+        }
+        fireChanged(id, old, old - amount);
+        return true;
+    }
+
+    /**
+     * Removes stock for several items, e.g. a customer's whole basket: either every line is
+     * removed or, if any item is short, nothing is.
+     *
+     * <p>This is all or nothing but not isolated. The lines are taken one by one and, if one
+     * is short, the lines already taken are put back. Listeners only hear about a basket once
+     * every line is taken, so a basket that is put back never reaches them; but until it is
+     * put back, another order for one of its items may be refused for stock it was holding.
+     *
+     * @param ids      Item id of each line
+     * @param amounts  Units wanted for each line
+     * @return -1 if all the stock was removed, otherwise the index of the first line that was short
+     */
+    public int tryRemoveAll(int[] ids, int[] amounts) {
+        if (ids.length != amounts.length) {
+            throw new IllegalArgumentException("Each line needs an id and an amount");
+        }
+        for (int i = 0; i < ids.length; i++) {
+            checkAmount(ids[i], amounts[i]);
+        }
+        int[] old = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            old[i] = take(ids[i], amounts[i]);
+            if (old[i] < 0) {
+                //put back the lines already taken, without telling the listeners
+                for (int j = i - 1; j >= 0; j--) {
+                    QUANTITY.getAndAdd(quantityPages[ids[j] >> PAGE_BITS], ids[j] & PAGE_MASK, amounts[j]);
+                }
+                return i;
+            }
+        }
+        for (int i = 0; i < ids.length; i++) {
+            fireChanged(ids[i], old[i], old[i] - amounts[i]);
+        }
+        return -1;
+    }
+
+    /**
+     * Removes {@code amount} units in one compare-and-set if there are enough, without
+     * telling the listeners.
+     *
+     * @return the quantity before, or -1 if there was not enough
+     */
+    private int take(int id, int amount) {
+        int[] page = quantityPages[id >> PAGE_BITS];
+        int index = id & PAGE_MASK;
+        while (true) {
+            int current = (int) QUANTITY.getVolatile(page, index);
+            if (current < amount) {
+                return -1;
+            }
+            if (QUANTITY.compareAndSet(page, index, current, current - amount)) {
+                return current;
+            }
+            //another thread changed the quantity in between, read it again
+        }
+    }
+
+    private void checkAmount(int id, int amount) {
+        checkId(id);
+        if (amount < 0) {
+            throw new IllegalArgumentException("Amount cannot be negative: " + amount);
+        }
+    }
+
+    /**
+     * Returns a view onto the item with this id.
+     */
+    public InventoryItem item(int id) {
+        checkId(id);
+        return new InventoryItem(this, id);
+    }
+
+    /**
+     * One more than the highest item id, i.e. the range of ids to iterate over.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of items in the store.
+     */
+    public int itemCount() {
+        return itemCount;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChanged(int id, int oldQuantity, int newQuantity) {
+        for (Listener listener : listeners) {
+            listener.quantityChanged(id, oldQuantity, newQuantity);
+        }
+    }
+
+    private void checkId(int id) {
+        if (!contains(id)) {
+            throw new IllegalArgumentException("No inventory item with id " + id);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.util.Arrays;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model that reads the inventory straight from an {@link InventoryStore}.
+ * Nothing is copied into the table: each cell is read from the store when it is painted,
+ * with the ID and Quantity columns typed as {@code Integer}.
+ *
+ * <p>The model listens to the store and, when a quantity changes, fires an update for
+ * that one row only, so editing an item in a large catalog does not rebuild the table.
+ * An item added to the store while the table is open is added as a new last row. The
+ * row mapping is only changed and read on the EDT.
+ * Sorting is left to a {@code RowSorter} on the table, which reorders the view without
+ * touching {@code Main.Inventory}.
+ *
+ * <p>Call {@link #detach()} when the table is closed so the store stops notifying it.
+ */
+public class InventoryTableModel extends AbstractTableModel implements InventoryStore.Listener {
+
+    private static final String[] COLUMN_NAMES = {"ID", "Item", "Quantity"};
+
+    private static final Metrics.Timer edtTime = Metrics.timer("edt.listeners");
+
+    private final InventoryStore store;
+
+    /**
+     * Item id shown on each row; only the first {@code rowCount} are used.
+     */
+    private int[] rowIds;
+    private int rowCount;
+
+    /**
+     * Row of each item id, -1 if the id is not shown.
+     */
+    private int[] rowOfId;
+
+    /**
+     * Builds a model showing every item that is currently in the store, in id order.
+     */
+    public InventoryTableModel(InventoryStore store) {
+        this.store = store;
+        int size = store.size();
+        int[] ids = new int[store.itemCount()];
+        rowOfId = new int[size];
+        int rows = 0;
+        for (int id = 0; id < size; id++) {
+            if (store.contains(id)) {
+                rowOfId[id] = rows;
+                ids[rows++] = id;
+            } else {
+                rowOfId[id] = -1;
+            }
+        }
+        rowIds = ids;
+        rowCount = rows;
+        store.addListener(this);
+    }
+
+    /**
+     * Stops listening to the store.
+     */
+    public void detach() {
+        store.removeListener(this);
+    }
+
+    /**
+     * Item id shown on a model row.
+     */
+    public int getItemId(int row) {
+        return rowIds[row];
+    }
+
+    /**
+     * Model row showing an item, -1 if it is not shown. Call on the EDT.
+     */
+    public int rowOf(int id) {
+        return id < rowOfId.length ? rowOfId[id] : -1;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 1 ? String.class : Integer.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) { //make table not be editable by user
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int id = rowIds[row];
+        switch (column) {
+            case 0:
+                return id;
+            case 1:
+                return store.getName(id);
+            default:
+                return store.getQuantity(id);
+        }
+    }
+
+    @Override
+    public void quantityChanged(int id, int oldQuantity, int newQuantity) {
+        fireItemUpdated(id);
+    }
+
+    /**
+     * Repaints the row of one item, e.g. when its quantity or stock status changes.
+     * May be called from any thread.
+     */
+    public void fireItemUpdated(int id) {
+        onEdt(() -> {
+            if (id < rowOfId.length && rowOfId[id] >= 0) {
+                fireTableRowsUpdated(rowOfId[id], rowOfId[id]);
+            }
+        });
+    }
+
+    @Override
+    public void itemAdded(int id) {
+        onEdt(() -> {
+            if (id < rowOfId.length && rowOfId[id] >= 0) {
+                fireTableRowsUpdated(rowOfId[id], rowOfId[id]); //replaced, e.g. renamed
+                return;
+            }
+            if (id >= rowOfId.length) {
+                int old = rowOfId.length;
+                rowOfId = Arrays.copyOf(rowOfId, Math.max(id + 1, old * 2));
+                Arrays.fill(rowOfId, old, rowOfId.length, -1);
+            }
+            if (rowCount == rowIds.length) {
+                rowIds = Arrays.copyOf(rowIds, Math.max(16, rowCount * 2));
+            }
+            int row = rowCount++;
+            rowIds[row] = id;
+            rowOfId[id] = row;
+            fireTableRowsInserted(row, row);
+        });
+    }
+
+    /**
+     * Changes can come from any thread, table events must go out on the EDT.
+     */
+    private static void onEdt(Runnable change) {
+        Runnable timed = edtTime.wrap(change);
+        if (SwingUtilities.isEventDispatchThread()) {
+            timed.run();
+        } else {
+            SwingUtilities.invokeLater(timed);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code InventoryWal} class is the write-ahead log for inventory changes.
+ * Every order, delivery and manual edit is written here and forced to disk before the
+ * inventory snapshot or the order/delivery journals are touched, so after a crash the
+ * log says exactly which changes happened.
+ *
+ * <p>A checkpoint writes the inventory snapshot, forces it, records the last sequence
+ * number it covers in the log header and truncates the log. Recovery then only has to
+ * replay the records written after the last checkpoint, so restart time depends on how
+ * long ago the last checkpoint was, not on how long the system has been running. The
+ * snapshot stores the covered sequence number per item as well, so records that reached
+ * the snapshot before a crash cut a checkpoint short are not applied twice.
+ *
+ * <p>File layout:
+ * <pre>
+ * header (16 bytes): magic, version, sequence number of the last checkpoint
+ * record (40 bytes): seq, timestamp, kind, item id, delta, order/delivery id, quantity after, CRC32
+ * </pre>
+ * Records store the change in stock (delta) rather than the new value, so changes made at
+ * the same time by different tills add up correctly when replayed.
+ *
+ * <p>The lines of a basket order are appended together: every line but the last is a
+ * {@code BASKET} record and the last is an {@code ORDER}. If a crash tears the write, the
+ * lines of the unfinished basket are dropped, so a basket is replayed whole or not at all.
+ */
+public class InventoryWal {
+
+    public static final int MAGIC = 0x424B574C; //"BKWL"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 40;
+
+    //kinds of change
+    public static final int ORDER = 1;
+    public static final int DELIVERY = 2;
+    public static final int EDIT = 3;
+    public static final int TRANSFER = 4; //stock moved to or from another location, record id is the transfer id
+    public static final int BASKET = 5; //order line of a basket with more lines after it, the last line is an ORDER
+
+    /**
+     * One change read back from the log.
+     */
+    public static class Record {
+        public final long seq;
+        public final long timestamp;
+        public final int kind;
+        public final int itemId;
+        public final int delta;
+        public final int recordId;
+        public final int quantityAfter;
+
+        public Record(long seq, long timestamp, int kind, int itemId, int delta, int recordId, int quantityAfter) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.itemId = itemId;
+            this.delta = delta;
+            this.recordId = recordId;
+            this.quantityAfter = quantityAfter;
+        }
+    }
+
+    private static final Metrics.Counter bytesWritten = Metrics.counter("wal.bytesWritten");
+    private static final Metrics.Timer forces = Metrics.timer("wal.force");
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private long checkpointSeq;
+    private long lastSeq;
+    private int recordsSinceCheckpoint;
+
+    private InventoryWal(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; //already open in this program
+        }
+        if (lock == null) {
+            close();
+            throw new IOException(file.getName() + " is in use by another program");
+        }
+    }
+
+    /**
+     * Opens the log, creating an empty one if the file does not exist.
+     * The end of the log is found by reading the records after the last checkpoint;
+     * a torn record left by a crash is cut off. The file stays locked until {@link #close},
+     * so two programs (e.g. the windows and {@code BulkImport}) never write the same log,
+     * snapshot and journals at once.
+     */
+    public static InventoryWal open(File file) throws IOException {
+        InventoryWal wal = new InventoryWal(file);
+        try {
+            if (wal.channel.size() < HEADER_SIZE) {
+                wal.writeHeader(0);
+                wal.channel.force(true);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                wal.channel.read(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC) {
+                    throw new IOException(file.getName() + " is not an inventory log");
+                }
+                if (header.getInt() != VERSION) {
+                    throw new IOException("Unsupported inventory log version");
+                }
+                wal.checkpointSeq = header.getLong();
+            }
+            wal.lastSeq = wal.checkpointSeq;
+            List<Record> tail = wal.readTail();
+            if (!tail.isEmpty()) {
+                wal.lastSeq = tail.get(tail.size() - 1).seq;
+            }
+            wal.recordsSinceCheckpoint = tail.size();
+            //drop anything after the last good record so new records follow on cleanly
+            wal.channel.truncate(HEADER_SIZE + (long) tail.size() * RECORD_SIZE);
+            return wal;
+        } catch (IOException e) {
+            wal.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends a batch of changes and forces them to disk with a single fsync.
+     *
+     * @param kinds      kind of each change
+     * @param itemIds    item of each change
+     * @param deltas     change in stock of each change
+     * @param recordIds  order, delivery or transfer id of each change, 0 for edits
+     * @param after      stock level after each change (for reading the log, not used by replay)
+     * @param timestamp  time of the changes
+     * @param count      number of changes in the arrays
+     */
+    public synchronized void append(int[] kinds, int[] itemIds, int[] deltas, int[] recordIds, int[] after,
+                                    long timestamp, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(count * RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < count; i++) {
+            putRecord(buffer, crc, lastSeq + 1 + i, timestamp, kinds[i], itemIds[i], deltas[i], recordIds[i], after[i]);
+        }
+        buffer.flip();
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        long forceStart = System.nanoTime();
+        channel.force(false);
+        forces.record(System.nanoTime() - forceStart);
+        bytesWritten.add((long) count * RECORD_SIZE);
+        lastSeq += count;
+        recordsSinceCheckpoint += count;
+    }
+
+    /**
+     * Appends one change and forces it to disk.
+     */
+    public void append(int kind, int itemId, int delta, int recordId, int after, long timestamp) throws IOException {
+        append(new int[] {kind}, new int[] {itemId}, new int[] {delta}, new int[] {recordId}, new int[] {after},
+                timestamp, 1);
+    }
+
+    /**
+     * Reads the records written since the last checkpoint, stopping at the first damaged one
+     * and leaving out the lines of a basket that was not written to the end.
+     */
+    public synchronized List<Record> readTail() throws IOException {
+        ArrayList<Record> records = new ArrayList<>();
+        long length = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        long expectedSeq = checkpointSeq + 1;
+        int complete = 0;
+        for (long position = HEADER_SIZE; position + RECORD_SIZE <= length; position += RECORD_SIZE) {
+            buffer.clear();
+            channel.read(buffer, position);
+            crc.reset();
+            crc.update(buffer.array(), 0, RECORD_SIZE - 4);
+            buffer.flip();
+            long seq = buffer.getLong();
+            Record record = new Record(seq, buffer.getLong(), buffer.getInt(), buffer.getInt(),
+                    buffer.getInt(), buffer.getInt(), buffer.getInt());
+            if (buffer.getInt() != (int) crc.getValue() || seq != expectedSeq) {
+                break; //torn or stale record, nothing after it can be trusted
+            }
+            records.add(record);
+            expectedSeq++;
+            if (record.kind != BASKET) {
+                complete = records.size();
+            }
+        }
+        //a torn basket is dropped as a whole
+        return complete == records.size() ? records : new ArrayList<>(records.subList(0, complete));
+    }
+
+    /**
+     * Marks everything logged so far as covered by a checkpoint and truncates the log.
+     * The caller must have forced the snapshot to disk first.
+     */
+    public synchronized void checkpoint() throws IOException {
+        writeHeader(lastSeq);
+        channel.force(false);
+        channel.truncate(HEADER_SIZE);
+        channel.force(true);
+        checkpointSeq = lastSeq;
+        recordsSinceCheckpoint = 0;
+    }
+
+    /**
+     * Numbers new records after {@code seq}, for a log that is newer than the snapshot it
+     * goes with (e.g. the file was deleted). Only an empty log can be moved forward.
+     */
+    public synchronized void startAfter(long seq) throws IOException {
+        if (seq <= lastSeq || recordsSinceCheckpoint > 0) {
+            return;
+        }
+        writeHeader(seq);
+        channel.force(true);
+        checkpointSeq = seq;
+        lastSeq = seq;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public synchronized int getRecordsSinceCheckpoint() {
+        return recordsSinceCheckpoint;
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+
+    /**
+     * Writes one record at the buffer's position; {@code buffer} must be a heap buffer.
+     * Also used by {@code InventoryEvents}, which keeps records in the same layout.
+     */
+    static void putRecord(ByteBuffer buffer, CRC32 crc, long seq, long timestamp, int kind, int itemId,
+                          int delta, int recordId, int after) {
+        int start = buffer.position();
+        buffer.putLong(seq);
+        buffer.putLong(timestamp);
+        buffer.putInt(kind);
+        buffer.putInt(itemId);
+        buffer.putInt(delta);
+        buffer.putInt(recordId);
+        buffer.putInt(after);
+        crc.reset();
+        crc.update(buffer.array(), start, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private void writeHeader(long seq) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(seq);
+        header.flip();
+        channel.write(header, 0);
+    }
+}
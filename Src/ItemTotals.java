@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/**
+ * Running totals per inventory item: units sold, units delivered, number of orders and
+ * deliveries, and the time of the last activity.
+ *
+ * <p>The totals are built once from the history (and the totals of journal segments too old
+ * to be loaded into it) when it has loaded and are then updated as
+ * each order or delivery is saved, so reading them is O(1) and never scans the history.
+ * Totals are indexed by inventory item id.
+ */
+public class ItemTotals {
+
+    private long[] unitsSold = new long[16];
+    private long[] unitsDelivered = new long[16];
+    private int[] orderCount = new int[16];
+    private int[] deliveryCount = new int[16];
+    private long[] lastOrder = new long[16];
+    private long[] lastDelivery = new long[16];
+
+    /**
+     * Adds a newly saved order to the totals.
+     */
+    public synchronized void recordOrder(int itemId, int quantity, long timestamp) {
+        ensureCapacity(itemId);
+        unitsSold[itemId] += quantity;
+        orderCount[itemId]++;
+        lastOrder[itemId] = Math.max(lastOrder[itemId], timestamp);
+    }
+
+    /**
+     * Adds a newly saved delivery to the totals.
+     */
+    public synchronized void recordDelivery(int itemId, int quantity, long timestamp) {
+        ensureCapacity(itemId);
+        unitsDelivered[itemId] += quantity;
+        deliveryCount[itemId]++;
+        lastDelivery[itemId] = Math.max(lastDelivery[itemId], timestamp);
+    }
+
+    /**
+     * Replaces the order totals with totals computed from the whole order history.
+     * Records for items that are no longer in the inventory are ignored.
+     */
+    public synchronized void rebuildOrders(HistoryStore history, InventoryStore store) {
+        Arrays.fill(unitsSold, 0);
+        Arrays.fill(orderCount, 0);
+        Arrays.fill(lastOrder, 0);
+        int[] itemIds = itemIdsByCode(history, store);
+        history.forEach((id, itemCode, quantity, timestamp) -> {
+            int itemId = itemIds[itemCode];
+            if (itemId >= 0) {
+                recordOrder(itemId, quantity, timestamp);
+            }
+        });
+    }
+
+    /**
+     * Replaces the delivery totals with totals computed from the whole delivery history.
+     */
+    public synchronized void rebuildDeliveries(HistoryStore history, InventoryStore store) {
+        Arrays.fill(unitsDelivered, 0);
+        Arrays.fill(deliveryCount, 0);
+        Arrays.fill(lastDelivery, 0);
+        int[] itemIds = itemIdsByCode(history, store);
+        history.forEach((id, itemCode, quantity, timestamp) -> {
+            int itemId = itemIds[itemCode];
+            if (itemId >= 0) {
+                recordDelivery(itemId, quantity, timestamp);
+            }
+        });
+    }
+
+    /**
+     * Adds orders that are not in the history, e.g. the totals of an old journal segment.
+     */
+    public synchronized void addOrders(int itemId, int count, long units, long lastTimestamp) {
+        ensureCapacity(itemId);
+        unitsSold[itemId] += units;
+        orderCount[itemId] += count;
+        lastOrder[itemId] = Math.max(lastOrder[itemId], lastTimestamp);
+    }
+
+    /**
+     * Adds deliveries that are not in the history.
+     */
+    public synchronized void addDeliveries(int itemId, int count, long units, long lastTimestamp) {
+        ensureCapacity(itemId);
+        unitsDelivered[itemId] += units;
+        deliveryCount[itemId] += count;
+        lastDelivery[itemId] = Math.max(lastDelivery[itemId], lastTimestamp);
+    }
+
+    /**
+     * Maps each dictionary code of a history store to an inventory item id (-1 if unknown).
+     */
+    private static int[] itemIdsByCode(HistoryStore history, InventoryStore store) {
+        int[] itemIds = new int[history.itemCount()];
+        for (int code = 0; code < itemIds.length; code++) {
+            itemIds[code] = store.indexOf(history.nameOf(code));
+        }
+        return itemIds;
+    }
+
+    public synchronized long getUnitsSold(int itemId) {
+        return itemId < unitsSold.length ? unitsSold[itemId] : 0;
+    }
+
+    public synchronized long getUnitsDelivered(int itemId) {
+        return itemId < unitsDelivered.length ? unitsDelivered[itemId] : 0;
+    }
+
+    public synchronized int getOrderCount(int itemId) {
+        return itemId < orderCount.length ? orderCount[itemId] : 0;
+    }
+
+    public synchronized int getDeliveryCount(int itemId) {
+        return itemId < deliveryCount.length ? deliveryCount[itemId] : 0;
+    }
+
+    /**
+     * Time of the last order or delivery of an item, 0 if there has been none.
+     */
+    public synchronized long getLastActivity(int itemId) {
+        return itemId < lastOrder.length ? Math.max(lastOrder[itemId], lastDelivery[itemId]) : 0;
+    }
+
+    private void ensureCapacity(int itemId) {
+        if (itemId >= unitsSold.length) {
+            int length = Math.max(itemId + 1, unitsSold.length * 2);
+            unitsSold = Arrays.copyOf(unitsSold, length);
+            unitsDelivered = Arrays.copyOf(unitsDelivered, length);
+            orderCount = Arrays.copyOf(orderCount, length);
+            deliveryCount = Arrays.copyOf(deliveryCount, length);
+            lastOrder = Arrays.copyOf(lastOrder, length);
+            lastDelivery = Arrays.copyOf(lastDelivery, length);
+        }
+    }
+}
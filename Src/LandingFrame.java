@@ -1,5 +1,7 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import javax.swing.*;
 
 /**
@@ -13,6 +15,9 @@ import javax.swing.*;
  *   <li>A main menu panel with buttons for user actions.</li>
  *   <li>Custom color and font styling for buttons.</li>
  *   <li>Action listeners for handling button clicks.</li>
+ *   <li>A progress bar shown while the inventory and history load in the background.
+ *       The buttons stay disabled until the data they need is loaded.</li>
+ *   <li>A list of stock alerts, newest first, fed by {@code StockAlerts}.</li>
  * </ul>
  * </p>
  * 
@@ -21,6 +26,7 @@ import javax.swing.*;
  *   <li>AddOrder - Handles the "Add Order" functionality.</li>
  *   <li>AddDelivery - Handles the "Add Delivery" functionality.</li>
  *   <li>ListInventory - Handles the "List Inventory" functionality.</li>
+ *   <li>AnalyticsPanel - Handles the "Analytics" functionality.</li>
  * </ul>
  * </p>
  */
@@ -39,8 +45,20 @@ public class LandingFrame extends JPanel {
     private JButton editButton;
     private JButton listButton;
     private JButton sortButton;
+    private JButton analyticsButton;
     private Dimension Bsize = new Dimension(150,100);
 
+    //startup status
+    private JPanel statusPanel;
+    private JProgressBar progressBar;
+    private JLabel statusLabel;
+
+    //stock alerts
+    private static final int MAX_ALERTS = 100;
+    private static final Metrics.Timer edtTime = Metrics.timer("edt.listeners");
+    private DefaultListModel<String> alertList;
+    private final SimpleDateFormat alertTime = new SimpleDateFormat("HH:mm:ss");
+
     //Colours and fonts
     // Brown colour scheme
     private final Color lightBrown = new Color(210, 180, 140); // tan
@@ -68,24 +86,99 @@ public class LandingFrame extends JPanel {
         addDeliveryButton.setPreferredSize(Bsize);
         listButton = new JButton("List Inventory");
         listButton.setPreferredSize(Bsize);
+        analyticsButton = new JButton("Analytics");
+        analyticsButton.setPreferredSize(Bsize);
 
         // Set button styles based on colour scheme
         styleButton(addOrderButton, mediumBrown, cream);
         styleButton(addDeliveryButton, darkBrown, cream);
         styleButton(listButton, mediumBrown, cream);
+        styleButton(analyticsButton, darkBrown, cream);
         
         //action listeners
         addOrderButton.addActionListener(new AddOrderListener());
         addDeliveryButton.addActionListener(new AddDeliveryListener());
         listButton.addActionListener(new ListItemsListener());
+        analyticsButton.addActionListener(new AnalyticsListener());
 
         mainMenuPanel.add(addOrderButton,BorderLayout.LINE_START);
         mainMenuPanel.add(addDeliveryButton,BorderLayout.CENTER);
         mainMenuPanel.add(listButton,BorderLayout.LINE_END);
-
-        add(mainMenuPanel);
+        mainMenuPanel.add(analyticsButton);
+
+        //status bar showing startup progress
+        statusPanel = new JPanel();
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        statusLabel = new JLabel("Starting...");
+        statusPanel.add(statusLabel);
+        statusPanel.add(progressBar);
+
+        //keep the menu at the top and the status at the bottom
+        setLayout(new BorderLayout());
+        JPanel top = new JPanel();
+        top.add(mainMenuPanel);
+        add(top, BorderLayout.NORTH);
+        add(statusPanel, BorderLayout.SOUTH);
+
+        //stock alerts, newest at the top
+        alertList = new DefaultListModel<>();
+        JScrollPane alertPane = new JScrollPane(new JList<>(alertList));
+        alertPane.setBorder(BorderFactory.createTitledBorder("Stock alerts"));
+        add(alertPane, BorderLayout.CENTER);
+
+        setActionsEnabled(false); //nothing to act on until the inventory is loaded
     }   
 
+    /**
+     * Enables or disables the menu buttons.
+     */
+    public void setActionsEnabled(boolean enabled) {
+        addOrderButton.setEnabled(enabled);
+        addDeliveryButton.setEnabled(enabled);
+        listButton.setEnabled(enabled);
+        analyticsButton.setEnabled(enabled);
+    }
+
+    /**
+     * Starts showing stock alerts, beginning with the items that are already low or over stock.
+     */
+    public void watchAlerts(StockAlerts alerts) {
+        for (int id : alerts.getLowItems()) {
+            addAlert(id, StockAlerts.LOW, Main.Stock.getQuantity(id));
+        }
+        for (int id : alerts.getOverItems()) {
+            addAlert(id, StockAlerts.OVER, Main.Stock.getQuantity(id));
+        }
+        //alerts come from whichever thread changed the stock
+        alerts.addListener((id, oldStatus, newStatus, quantity) ->
+                SwingUtilities.invokeLater(edtTime.wrap(() -> addAlert(id, newStatus, quantity))));
+    }
+
+    private void addAlert(int id, int status, int quantity) {
+        String state = status == StockAlerts.LOW ? "low on stock"
+                : status == StockAlerts.OVER ? "over stock" : "back to normal";
+        alertList.add(0, alertTime.format(new Date()) + "  " + Main.Stock.getName(id)
+                + " " + state + " (" + quantity + ")");
+        if (alertList.size() > MAX_ALERTS) {
+            alertList.removeElementAt(alertList.size() - 1);
+        }
+    }
+
+    /**
+     * Updates the startup progress bar, hiding it once every step is done.
+     *
+     * @param done      steps finished so far
+     * @param total     total number of steps
+     * @param message   text shown next to the bar
+     */
+    public void showProgress(int done, int total, String message) {
+        progressBar.setMaximum(total);
+        progressBar.setValue(done);
+        statusLabel.setText(message);
+        statusPanel.setVisible(done < total);
+    }
+
 
     private class AddOrderListener implements ActionListener{
         public void actionPerformed(ActionEvent e){
@@ -105,6 +198,12 @@ public class LandingFrame extends JPanel {
         }
     }
 
+    private class AnalyticsListener implements ActionListener{
+        public void actionPerformed(ActionEvent e){
+            new AnalyticsPanel();
+        }
+    }
+
     private void styleButton(JButton button, Color bgColor, Color fgColor) {
         button.setBackground(bgColor);
         button.setForeground(fgColor);
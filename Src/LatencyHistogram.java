@@ -0,0 +1,140 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, in the style of HdrHistogram.
+ *
+ * <p>Buckets are log-linear: each power of two is split into {@value #SUB_BUCKETS} equal
+ * buckets, so every recorded value is kept to within about 1.5% from one nanosecond up to
+ * hours, in a fixed 30 KB. Recording is a few atomic updates and never allocates, so many
+ * threads can record into one histogram on a hot path. Percentiles are read from the
+ * bucket counts, reporting the highest value a bucket can hold.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << (SUB_BITS - 1); //buckets per power of two
+    private static final int BUCKETS = (64 - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value; negative values count as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        total.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Highest value that falls in {@code bucket}.
+     */
+    private static long highestIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Mean of the recorded values, to within the bucket precision.
+     */
+    public double getMean() {
+        long count = 0;
+        double sum = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long inBucket = counts.get(bucket);
+            if (inBucket != 0) {
+                count += inBucket;
+                sum += inBucket * (double) highestIn(bucket);
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Value at or below which {@code percentile} percent of the recorded values fall, 0 if empty.
+     */
+    public long valueAtPercentile(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestIn(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Adds every value recorded in {@code other} to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long count = other.counts.get(bucket);
+            if (count != 0) {
+                counts.addAndGet(bucket, count);
+            }
+        }
+        total.addAndGet(other.total.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Moves everything recorded so far into a new histogram and empties this one, for
+     * reporting one interval at a time while threads keep recording.
+     */
+    public LatencyHistogram drain() {
+        LatencyHistogram copy = new LatencyHistogram();
+        long drained = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (counts.get(bucket) != 0) {
+                long count = counts.getAndSet(bucket, 0);
+                copy.counts.set(bucket, count);
+                drained += count;
+            }
+        }
+        //a value being recorded right now lands in this interval or the next, never both
+        total.addAndGet(-drained);
+        copy.total.set(drained);
+        copy.max.set(max.getAndSet(0));
+        return copy;
+    }
+
+    /**
+     * p50, p99, p99.9 and max in milliseconds.
+     */
+    public String summary() {
+        return String.format(Locale.ROOT, "p50 %.3f  p99 %.3f  p99.9 %.3f  max %.3f ms",
+                valueAtPercentile(50) / 1e6, valueAtPercentile(99) / 1e6,
+                valueAtPercentile(99.9) / 1e6, getMax() / 1e6);
+    }
+}
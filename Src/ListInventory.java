@@ -1,10 +1,9 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.*;
+import java.util.List;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableRowSorter;
 
 /**
  * The ListInventory class represents the panel of the application that 
@@ -18,23 +17,31 @@ import javax.swing.table.DefaultTableModel;
  * <ul>
  *   <li>Custom color and font styling for buttons.</li>
  *   <li>Action listeners for handling button clicks.</li>
- *   <li>Methods that provide a layout of the inventory in stock.<li>
+ *   <li>A live {@code InventoryTableModel} that reads straight from the inventory store and
+ *       updates single rows when stock changes; sorting by id is done by a {@code TableRowSorter}
+ *       and sorting by quantity reads the order from {@code Main.ByQuantity}, so
+ *       {@code Main.Inventory} is never reordered.</li>
  * </ul>
  * </p>
  * 
  * <p>Dependencies:
  * <ul>
  *   <li>Done - Handles the "Edit Inventory" functionality, by saving the edit made.</li>
- *   <li>Edit - Handles the "Edit Inventory" functionality only if the user inputs the correct password.</li>
+ *   <li>Edit - Handles the "Edit Inventory" functionality only if the user inputs the correct password;
+ *       after a login, edits need no password until the edit session times out.</li>
  *   <li>Close - Handles the "Closing Frame" functionality.</li>
  *   <li>Sortid - Handles the "Sort Inventory by id" functionality.</li>
  *   <li>SortQuantity - Handles the "Sort Inventory by quantity" functionality.</li>
+ *   <li>LowestStock - Handles the "Lowest Stock" functionality, read from {@code Main.ByQuantity}.</li>
  * </ul>
  * </p>
  */
 
 
 public class ListInventory extends JFrame{
+    private static final int LOWEST_COUNT = 5; //items shown by "Lowest Stock"
+    private static final Metrics.Counter edits = Metrics.counter("edits");
+
     private JPanel mainMenuPanel;
     private JPanel display;
     private JPanel popup;
@@ -44,6 +51,7 @@ public class ListInventory extends JFrame{
     private JButton idSort;
     private JButton quantitySort;
     private JButton showChartBtn;
+    private JButton lowestBtn;
     private JButton done; //for popup
     
     private JLabel itemIdLabel;// for  popup
@@ -53,18 +61,25 @@ public class ListInventory extends JFrame{
     
     private JScrollPane scrollpane;
     private JTable table;
-    private DefaultTableModel model;
-    private ArrayList<InventoryItem> IList;
+    private InventoryTableModel model;
+    private TableRowSorter<InventoryTableModel> sorter;
+    private QuantityOrder quantityOrder;
+    private StockAlerts.AlertListener alertListener;
 
     /**
     * Constructs the GUI for List Inventory Frame.
     */
     public ListInventory(){
-        IList = Main.Inventory;
-
         setTitle("Current Inventory");
         setSize(700, 500);
         setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosed(WindowEvent e) {
+                model.detach(); //stop listening to the store once the window is gone
+                Main.Alerts.removeListener(alertListener);
+            }
+        });
 
         mainMenuPanel = new JPanel();
         popup = new JPanel();
@@ -89,6 +104,7 @@ public class ListInventory extends JFrame{
         idSort = new JButton("Sort by ID");
         quantitySort = new JButton("Sort by Quantity");
         showChartBtn = new JButton("Pie Chart");
+        lowestBtn = new JButton("Lowest Stock");
         
         
 
@@ -96,7 +112,7 @@ public class ListInventory extends JFrame{
         done.addActionListener(new DoneButtonListener());
         
         itemIdLabel = new JLabel("ID of item to edit:");
-        itemIdDropDown = new JSpinner(new SpinnerNumberModel(0,0,Main.TotItems,1));
+        itemIdDropDown = new JSpinner(new SpinnerNumberModel(0,0,Math.max(0, Main.Stock.size()-1),1));
 
         popup.add(itemIdLabel);
         popup.add(itemIdDropDown);
@@ -114,6 +130,7 @@ public class ListInventory extends JFrame{
         idSort.addActionListener(new SortidListener());
         quantitySort.addActionListener(new SortQuantityListener());
         showChartBtn.addActionListener(new ShowChartListener());
+        lowestBtn.addActionListener(new LowestStockListener());
 
         edit.setBackground(mediumCyan);
         edit.setForeground(Color.WHITE);
@@ -130,6 +147,9 @@ public class ListInventory extends JFrame{
         showChartBtn.setBackground(mediumCyan);
         showChartBtn.setForeground(Color.WHITE);
 
+        lowestBtn.setBackground(mediumCyan);
+        lowestBtn.setForeground(Color.WHITE);
+
         done.setBackground(darkerCyan);
         done.setForeground(Color.WHITE);
 
@@ -137,6 +157,7 @@ public class ListInventory extends JFrame{
         display.add(idSort);
         display.add(quantitySort);
         display.add(showChartBtn);
+        display.add(lowestBtn);
         display.add(close);
 
         add(display,BorderLayout.SOUTH); //bottom of frame
@@ -144,22 +165,20 @@ public class ListInventory extends JFrame{
         add(popup,BorderLayout.CENTER); //middle of frame
 
         //table things
-        String[] columnNames ={
-            "ID",
-            "Item",
-            "Quantity"
-        };
-        model=new DefaultTableModel(columnNames,0){
-            public boolean isCellEditable(int row,int column){ //make table not be editable by user
-                return false;
-            }
-        };
+        //the model reads straight from the store and updates single rows when stock changes
+        model = new InventoryTableModel(Main.Stock);
         table = new JTable(model);
-        CustomCellRenderer renderer = new CustomCellRenderer();
+        //sorting only reorders the view, Main.Inventory is never touched
+        sorter = new TableRowSorter<>(model);
+        quantityOrder = new QuantityOrder(model, Main.ByQuantity);
+        table.setRowSorter(sorter);
+        CustomCellRenderer renderer = new CustomCellRenderer(Main.Alerts);
         table.getColumnModel().getColumn(2).setCellRenderer(renderer);
-        showTable(IList);
+        //repaint a row when its stock status changes, e.g. after its thresholds are changed
+        alertListener = (id, oldStatus, newStatus, quantity) -> model.fireItemUpdated(id);
+        Main.Alerts.addListener(alertListener);
 
-        table.setPreferredScrollableViewportSize(new Dimension(500, Main.Inventory.size()*15 +50));
+        table.setPreferredScrollableViewportSize(new Dimension(500, Math.min(model.getRowCount(), 20)*15 +50));
         table.setFillsViewportHeight(true);
 
         scrollpane = new JScrollPane(table);
@@ -169,79 +188,49 @@ public class ListInventory extends JFrame{
     }
 
     /**
-     * Displays inventory in a table format.
-     */
-    private void showTable(ArrayList<InventoryItem> IList){
-        if (!IList.isEmpty()){
-            for(InventoryItem item:IList){
-                addToTable(item);
-            }
-        }
-    }
-
-    /**
-     * Adds an inventory item to a row in a table. 
-     */
-    private void addToTable(InventoryItem item){
-        String itemName = item.getName();
-        String itemId = Integer.toString(item.getId());
-        String itemQuantity = Integer.toString(item.getQuantity());
-        String[] row = {itemId,itemName,itemQuantity};
-        model.addRow(row);
-    }
-
-    private void UpdTable(ArrayList<InventoryItem> IList){
-        model.setRowCount(0);
-        showTable(IList);
-    }
-
-    /**
-     * Saves the updated inventory to the Inventory.txt file.
-     */
-    private void saveUpdatedInvToFile() {
-        //try with resources to auto close printwriter
-        try (PrintWriter out = new PrintWriter("Inventory.txt")) {
-            for (InventoryItem item : Main.Inventory) {
-                out.println(item.getId() + " " + item.getName() + " " + item.getQuantity());
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Updates the quanitity of an item in inventory, then saves the updated inventory to the Inventory.txt file.
+     * Updates the quanitity of an item in inventory. The edit is handed to the background
+     * writer, which logs it to inventory.wal; it reaches inventory.bin at the next checkpoint.
      */
     private void UpdInv(int itemId,int newQuantity){  
-        for(InventoryItem item : Main.Inventory){
-            int id = item.getId();
-            if (id == itemId){
-                item.setQuantity(newQuantity);
-            }
+        if (Main.Stock.contains(itemId)){
+            edits.increment();
+            Main.Writer.setQuantity(itemId, newQuantity).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                            "The edit could not be saved: " + error.getMessage()));
+                }
+            });
         }
-        saveUpdatedInvToFile();
-        IList = Main.Inventory;
     }
 
     private class DoneButtonListener implements ActionListener{
         public void actionPerformed(ActionEvent e){
             popup.setVisible(false);
+            if (!Main.Auth.hasEditSession()) { //timed out while the popup was open
+                JOptionPane.showMessageDialog(ListInventory.this,
+                    "Your edit session has expired, please log in again.",
+                    "Access Denied",
+                    JOptionPane.WARNING_MESSAGE);
+                return;
+            }
 
             int itemId = (int) itemIdDropDown.getValue();
             int newQuantity = (int) quantitySpinner.getValue();
             
-            UpdInv(itemId,newQuantity);
-            UpdTable(IList);
+            UpdInv(itemId,newQuantity); //the table model updates that row by itself
         }
     }
 
     private class EditButtonListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
-            Login loginDialog = new Login(); //make login dialogbox
-            loginDialog.setLocationRelativeTo(null); // Center on screen
-            loginDialog.setVisible(true); // This will block until loginDialog is disposed because its a dialogbox
+            //only ask for a login when there is no live edit session
+            if (!Main.Auth.hasEditSession()) {
+                Login loginDialog = new Login(); //make login dialogbox
+                loginDialog.setLocationRelativeTo(null); // Center on screen
+                loginDialog.setVisible(true); // This will block until loginDialog is disposed because its a dialogbox
+            }
 
-            if (Login.loginSuccessful) {
+            if (Main.Auth.hasEditSession()) {
                 popup.setVisible(true);
                 itemIdDropDown.setValue(0);
                 quantitySpinner.setValue(1);
@@ -256,30 +245,154 @@ public class ListInventory extends JFrame{
 
     private class CloseButtonListener implements ActionListener{
         public void actionPerformed(ActionEvent e){
-            setVisible(false);
+            dispose();
         }
     }
 
     private class SortidListener implements ActionListener{
         public void actionPerformed(ActionEvent e){
-            Collections.sort(IList, Comparator.comparingInt(InventoryItem::getId));
-            model.setRowCount(0);
-            showTable(IList);
+            table.setRowSorter(sorter);
+            sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
         }
     }
 
     private class SortQuantityListener implements ActionListener{
         public void actionPerformed(ActionEvent e){
-            Collections.sort(IList, Comparator.comparingInt(InventoryItem::getQuantity));
-            model.setRowCount(0);
-            showTable(IList);
+            //the index is already in quantity order, so this is one walk instead of a sort
+            quantityOrder.reorder();
+            table.setRowSorter(quantityOrder);
+        }
+    }
+
+    /**
+     * Orders the rows by quantity, lowest first, as read from a {@code QuantityIndex}: n rows
+     * are put in order by one O(n) walk of the index instead of an O(n log n) sort. Like a
+     * {@code TableRowSorter}, rows are reordered when the order is asked for or rows are
+     * added, not on every stock change. Clicking a column header reads the order again.
+     */
+    private static class QuantityOrder extends RowSorter<InventoryTableModel> {
+        private final InventoryTableModel model;
+        private final QuantityIndex index;
+        private int[] viewToModel = new int[0];
+        private int[] modelToView = new int[0];
+
+        QuantityOrder(InventoryTableModel model, QuantityIndex index) {
+            this.model = model;
+            this.index = index;
+        }
+
+        void reorder() {
+            int rows = model.getRowCount();
+            int[] order = new int[rows];
+            int[] view = new int[rows];
+            Arrays.fill(view, -1);
+            int n = 0;
+            for (int id : index.ascending()) {
+                int row = model.rowOf(id);
+                if (row >= 0 && row < rows && view[row] < 0) {
+                    view[row] = n;
+                    order[n++] = row;
+                }
+            }
+            for (int row = 0; row < rows; row++) { //not indexed yet, shown last
+                if (view[row] < 0) {
+                    view[row] = n;
+                    order[n++] = row;
+                }
+            }
+            int[] last = viewToModel;
+            viewToModel = order;
+            modelToView = view;
+            fireRowSorterChanged(last);
+        }
+
+        @Override
+        public InventoryTableModel getModel() {
+            return model;
+        }
+
+        @Override
+        public void toggleSortOrder(int column) {
+            reorder();
+        }
+
+        @Override
+        public int convertRowIndexToModel(int index) {
+            return viewToModel[index];
+        }
+
+        @Override
+        public int convertRowIndexToView(int index) {
+            return index < modelToView.length ? modelToView[index] : -1;
+        }
+
+        @Override
+        public void setSortKeys(List<? extends SortKey> keys) {
+            reorder();
+        }
+
+        @Override
+        public List<? extends SortKey> getSortKeys() {
+            return List.of(new SortKey(2, SortOrder.ASCENDING));
+        }
+
+        @Override
+        public int getViewRowCount() {
+            return viewToModel.length;
+        }
+
+        @Override
+        public int getModelRowCount() {
+            return model.getRowCount();
+        }
+
+        @Override
+        public void modelStructureChanged() {
+            reorder();
+        }
+
+        @Override
+        public void allRowsChanged() {
+            reorder();
+        }
+
+        @Override
+        public void rowsInserted(int firstRow, int endRow) {
+            reorder();
+        }
+
+        @Override
+        public void rowsDeleted(int firstRow, int endRow) {
+            reorder();
+        }
+
+        @Override
+        public void rowsUpdated(int firstRow, int endRow) {
+            //stock changes repaint in place, the order is read again on request
+        }
+
+        @Override
+        public void rowsUpdated(int firstRow, int endRow, int column) {
         }
     }
 
     private class ShowChartListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             //new InventoryPieChart(IList); // method that displays the chart window
-            PieChartWindow.showChart(IList);
+            PieChartWindow.showChart(Main.Stock); //reuses the one live chart window
+        }
+    }
+
+    private class LowestStockListener implements ActionListener {
+        public void actionPerformed(ActionEvent e) {
+            //the index is kept sorted as stock changes, so this only reads the first few entries
+            int[] ids = Main.ByQuantity.lowest(LOWEST_COUNT);
+            StringBuilder message = new StringBuilder("Lowest stock:\n");
+            for (int id : ids) {
+                message.append(id).append("  ").append(Main.Stock.getName(id))
+                        .append(": ").append(Main.Stock.getQuantity(id)).append("\n");
+            }
+            JOptionPane.showMessageDialog(ListInventory.this, message.toString());
         }
     }
 
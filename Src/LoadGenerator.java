@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Soak test for the order and delivery save path, without the windows.
+ *
+ * <p>A number of simulated tills save orders and deliveries the way {@code AddOrder} and
+ * {@code AddDelivery} do: through a {@code PersistenceWriter}, waiting for the save, then
+ * adding the record to the history and running totals. The tills run for a set time with a
+ * set share of orders, each pausing {@code thinkMillis} between sales (0 runs flat out).
+ *
+ * <p>Every {@code interval} seconds it prints, and appends to a CSV file, the orders and
+ * deliveries saved per second, the save latency percentiles of that interval, the sizes of
+ * the order and delivery journals (segments included) and {@code inventory.wal}, and the heap in use, so
+ * slowdowns as the files and history grow show up over a long run. A latency histogram of
+ * the whole run is printed at the end.
+ *
+ * <p>The test works on its own files in {@code dir}. Without a {@code dir} it uses a temporary
+ * directory that is deleted afterwards; with one, the files are kept and a later run carries
+ * on from them, so a week of traffic can be built up over several runs.
+ *
+ * <p>Usage:
+ * <pre>
+ * java LoadGenerator [tills=8] [seconds=60] [orderPercent=80] [items=50] [thinkMillis=0]
+ *                    [interval=5] [dir=...] [out=load-results.csv]
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final int START_STOCK = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int tills = 8;
+        int seconds = 60;
+        int orderPercent = 80;
+        int items = 50;
+        long thinkMillis = 0;
+        int interval = 5;
+        String dirName = null;
+        String out = "load-results.csv";
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("tills=")) {
+                tills = Integer.parseInt(value);
+            } else if (arg.startsWith("seconds=")) {
+                seconds = Integer.parseInt(value);
+            } else if (arg.startsWith("orderPercent=")) {
+                orderPercent = Integer.parseInt(value);
+            } else if (arg.startsWith("items=")) {
+                items = Integer.parseInt(value);
+            } else if (arg.startsWith("thinkMillis=")) {
+                thinkMillis = Long.parseLong(value);
+            } else if (arg.startsWith("interval=")) {
+                interval = Integer.parseInt(value);
+            } else if (arg.startsWith("dir=")) {
+                dirName = value;
+            } else if (arg.startsWith("out=")) {
+                out = value;
+            }
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        boolean temporary = dirName == null;
+        File dir = temporary ? Files.createTempDirectory("inventory-load").toFile() : new File(dirName);
+        dir.mkdirs();
+        try {
+            new LoadGenerator(dir, items).run(tills, seconds, orderPercent, thinkMillis, interval, out);
+        } finally {
+            if (temporary) {
+                for (File file : dir.listFiles()) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private final File dir;
+    private final StockService service;
+    private final OrderJournal orderLog;
+    private final OrderJournal deliveryLog;
+    private final PersistenceWriter writer;
+    private final String[] names;
+
+    //counters of the current interval, reset by the reporter
+    private final LongAdder orders = new LongAdder();
+    private final LongAdder deliveries = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+
+    private LoadGenerator(File dir, int items) throws IOException {
+        this.dir = dir;
+        File snapshotFile = new File(dir, "inventory.bin");
+        InventoryStore store = new InventoryStore();
+        InventorySnapshot snapshot;
+        if (snapshotFile.exists()) {
+            snapshot = InventorySnapshot.open(snapshotFile);
+            snapshot.load(store);
+        } else {
+            for (int id = 0; id < items; id++) {
+                store.add(id, "Item" + id, START_STOCK);
+            }
+            snapshot = InventorySnapshot.create(snapshotFile, store);
+        }
+        names = new String[store.size()];
+        for (int id = 0; id < names.length; id++) {
+            names[id] = store.getName(id);
+        }
+
+        orderLog = new OrderJournal(new File(dir, "orders.txt").getPath());
+        deliveryLog = new OrderJournal(new File(dir, "Delivery.txt").getPath());
+        int lastOrderId = orderLog.lastId();
+        int lastDeliveryId = deliveryLog.lastId();
+        Order.setIdGenerator(IdGenerator.open(new File(dir, "orders.id"), lastOrderId + 1));
+        Delivery.setIdGenerator(IdGenerator.open(new File(dir, "deliveries.id"), lastDeliveryId + 1));
+        service = new StockService(store, snapshot, InventoryWal.open(new File(dir, "inventory.wal")),
+                orderLog, deliveryLog);
+        service.recover(lastOrderId, lastDeliveryId);
+        service.startCheckpoints(Main.CHECKPOINT_SECONDS);
+        writer = new PersistenceWriter(service);
+
+        //history and totals are kept by Main, as in the windows
+        Main.Stock = store;
+    }
+
+    private void run(int tills, int seconds, int orderPercent, long thinkMillis, int interval, String out)
+            throws Exception {
+        System.out.printf("%d tills, %d s, %d%% orders, %d items, think %d ms, files in %s%n",
+                tills, seconds, orderPercent, names.length, thinkMillis, dir);
+        LatencyHistogram runLatency = new LatencyHistogram();
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        Thread[] threads = new Thread[tills];
+        for (int t = 0; t < tills; t++) {
+            threads[t] = new Thread(() -> till(end, orderPercent, thinkMillis), "till-" + t);
+            threads[t].start();
+        }
+
+        try (PrintWriter csv = new PrintWriter(new File(out), StandardCharsets.UTF_8)) {
+            String header = "seconds,orders/s,deliveries/s,refused,failed,p50 ms,p99 ms,p99.9 ms,max ms,"
+                    + "orders KB,deliveries KB,inventory.wal KB,heap MB";
+            csv.println(header);
+            System.out.println(header.replace(",", "  "));
+            long last = start;
+            while (System.nanoTime() < end) {
+                Thread.sleep(Math.max(1, Math.min(interval * 1000L, (end - System.nanoTime()) / 1_000_000)));
+                long now = System.nanoTime();
+                double elapsed = (now - last) / 1e9;
+                last = now;
+                LatencyHistogram latency = intervalLatency.drain();
+                runLatency.add(latency);
+                Runtime runtime = Runtime.getRuntime();
+                String line = String.format(Locale.ROOT, "%.0f,%.0f,%.0f,%d,%d,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%d",
+                        (now - start) / 1e9, orders.sumThenReset() / elapsed, deliveries.sumThenReset() / elapsed,
+                        refused.sumThenReset(), failed.sumThenReset(),
+                        latency.valueAtPercentile(50) / 1e6, latency.valueAtPercentile(99) / 1e6,
+                        latency.valueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6,
+                        orderLog.sizeOnDisk() >> 10, deliveryLog.sizeOnDisk() >> 10, kilobytes("inventory.wal"),
+                        (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+                csv.println(line);
+                csv.flush();
+                System.out.println(line.replace(",", "  "));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.flush();
+        service.checkpoint();
+        runLatency.add(intervalLatency.drain());
+
+        System.out.printf(Locale.ROOT, "saved %d in %d s (%.0f/s), mean %.3f ms%n", runLatency.getCount(), seconds,
+                runLatency.getCount() / (double) seconds, runLatency.getMean() / 1e6);
+        System.out.println("latency " + runLatency.summary());
+        System.out.println("results written to " + out);
+    }
+
+    /**
+     * One till: saves orders and deliveries until {@code end}, timing each save.
+     */
+    private void till(long end, int orderPercent, long thinkMillis) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            String item = names[random.nextInt(names.length)];
+            long started = System.nanoTime();
+            try {
+                if (random.nextInt(100) < orderPercent) {
+                    Order order = writer.placeOrder(item, 1 + random.nextInt(3)).join();
+                    if (order == null) {
+                        refused.increment();
+                    } else {
+                        Main.recordOrder(order);
+                        orders.increment();
+                    }
+                } else {
+                    Main.recordDelivery(writer.receiveDelivery(item, 20 + random.nextInt(80)).join());
+                    deliveries.increment();
+                }
+            } catch (CompletionException e) {
+                failed.increment();
+            }
+            intervalLatency.record(System.nanoTime() - started);
+            if (thinkMillis > 0) {
+                try {
+                    Thread.sleep(thinkMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private long kilobytes(String fileName) {
+        return new File(dir, fileName).length() >> 10;
+    }
+}
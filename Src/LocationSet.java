@@ -0,0 +1,333 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * The shops and the central kitchen, each with its own inventory.
+ *
+ * <p>Every location is a shard with its own {@code InventoryStore}, {@code StockService}
+ * and files ({@code inventory-<name>.bin}, {@code inventory-<name>.wal},
+ * {@code orders-<name>.txt}, {@code Delivery-<name>.txt}), so locations never share a lock
+ * or a forced write and throughput grows with the number of locations. The first location
+ * is the original inventory the windows work on ({@code Main.Service}). The other locations
+ * are listed one name per line in {@code locations.txt}; a new location starts with the
+ * main catalog at zero stock.
+ *
+ * <p>Questions across locations - total stock of each item, which locations are low on
+ * what - are answered by fork-join tasks that split the locations in half until each task
+ * has one, so the locations are read in parallel.
+ *
+ * <p>A transfer takes stock out of one location and adds it to another. Both locations
+ * hold off their checkpoints until the transfer is recorded as done in
+ * {@code transfers.log}, so after a crash both halves are still in the locations' logs.
+ * On startup a transfer that was taken out but never added is put back, which makes a
+ * transfer all or nothing. Recovery keeps every location's log (no checkpoint) until the
+ * outcome of each logged transfer is in {@code transfers.log}, so a second crash during
+ * startup still finds both halves.
+ */
+public class LocationSet {
+
+    public static final String MAIN = "main";
+
+    /**
+     * One location.
+     */
+    public static class Location {
+        public final String name;
+        public final StockService service;
+        /**
+         * Saves this location's orders and deliveries in the background, in batches
+         */
+        public final PersistenceWriter writer;
+
+        Location(String name, StockService service, PersistenceWriter writer) {
+            this.name = name;
+            this.service = service;
+            this.writer = writer;
+        }
+
+        public InventoryStore getStore() {
+            return service.getStore();
+        }
+    }
+
+    private final List<Location> locations;
+    private final HashMap<String, Location> byName = new HashMap<>();
+    private final OrderJournal transferLog;
+    private final IdGenerator transferIds;
+
+    private LocationSet(List<Location> locations, OrderJournal transferLog, IdGenerator transferIds) {
+        this.locations = locations;
+        this.transferLog = transferLog;
+        this.transferIds = transferIds;
+        for (Location location : locations) {
+            byName.put(location.name, location);
+        }
+    }
+
+    /**
+     * Opens every location listed in {@code locationFile} next to the main one, recovering
+     * each from its own log and finishing any transfer a crash interrupted.
+     *
+     * @param main             the main location's service, already recovered
+     * @param mainWriter       the main location's background writer
+     * @param locationFile     names of the other locations, may not exist
+     * @param checkpointSeconds how often the other locations checkpoint
+     */
+    public static LocationSet open(StockService main, PersistenceWriter mainWriter, File locationFile,
+                                   long checkpointSeconds) throws IOException {
+        ArrayList<Location> locations = new ArrayList<>();
+        locations.add(new Location(MAIN, main, mainWriter));
+        if (locationFile.exists()) {
+            for (String line : Files.readAllLines(locationFile.toPath(), StandardCharsets.UTF_8)) {
+                String name = line.trim();
+                if (!name.isEmpty() && !name.startsWith("#") && !name.equals(MAIN)) {
+                    StockService service = openLocation(name, main.getStore());
+                    service.startCheckpoints(checkpointSeconds);
+                    locations.add(new Location(name, service, new PersistenceWriter(service)));
+                }
+            }
+        }
+
+        //transfer ids carry on from the log in case the id file was lost
+        File logFile = new File("transfers.log");
+        HashSet<Integer> finished = new HashSet<>();
+        int lastId = 0;
+        if (logFile.exists()) {
+            for (String line : Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8)) {
+                try {
+                    int id = Integer.parseInt(line.substring(0, line.indexOf(',')));
+                    finished.add(id);
+                    lastId = Math.max(lastId, id);
+                } catch (RuntimeException e) {
+                    //damaged line, a transfer without a line is checked against the logs below
+                }
+            }
+        }
+        LocationSet set = new LocationSet(locations, new OrderJournal(logFile.getPath()),
+                IdGenerator.open(new File("transfers.id"), lastId + 1));
+        set.finishTransfers(finished);
+        return set;
+    }
+
+    /**
+     * Opens one location's files, creating them from the main catalog the first time.
+     */
+    private static StockService openLocation(String name, InventoryStore catalog) throws IOException {
+        File snapshotFile = new File("inventory-" + name + ".bin");
+        InventoryStore store = new InventoryStore();
+        InventorySnapshot snapshot;
+        if (snapshotFile.exists()) {
+            snapshot = InventorySnapshot.open(snapshotFile);
+            snapshot.load(store);
+        } else {
+            snapshot = InventorySnapshot.create(snapshotFile, new InventoryStore());
+        }
+        //every location sells the same items, with the same ids as the main location
+        for (int id = 0; id < catalog.size(); id++) {
+            if (catalog.contains(id) && !store.contains(id)) {
+                store.add(id, catalog.getName(id), 0);
+                snapshot.writeItem(id, catalog.getName(id), 0);
+            }
+        }
+        snapshot.force();
+
+        InventoryWal wal = InventoryWal.open(new File("inventory-" + name + ".wal"));
+        OrderJournal orders = new OrderJournal("orders-" + name + ".txt");
+        OrderJournal deliveries = new OrderJournal("Delivery-" + name + ".txt");
+        StockService service = new StockService(store, snapshot, wal, orders, deliveries);
+        service.recover(orders.lastId(), deliveries.lastId());
+        return service;
+    }
+
+    /**
+     * Completes transfers that were logged by the locations but not recorded as done:
+     * if the stock was taken out but never added at the other end, it is put back.
+     */
+    private void finishTransfers(HashSet<Integer> finished) throws IOException {
+        HashMap<Integer, Location> takenFrom = new HashMap<>();
+        HashMap<Integer, InventoryWal.Record> taken = new HashMap<>();
+        HashMap<Integer, Location> addedTo = new HashMap<>();
+        for (Location location : locations) {
+            for (InventoryWal.Record record : location.service.getRecoveredTransfers()) {
+                if (finished.contains(record.recordId)) {
+                    continue;
+                }
+                if (record.delta < 0) {
+                    takenFrom.put(record.recordId, location);
+                    taken.put(record.recordId, record);
+                } else {
+                    addedTo.put(record.recordId, location);
+                }
+            }
+        }
+        ArrayList<String> lines = new ArrayList<>();
+        for (Map.Entry<Integer, InventoryWal.Record> entry : taken.entrySet()) {
+            int transferId = entry.getKey();
+            InventoryWal.Record out = entry.getValue();
+            Location from = takenFrom.get(transferId);
+            String item = from.getStore().getName(out.itemId);
+            Location to = addedTo.get(transferId);
+            if (to == null) {
+                from.service.transferIn(out.itemId, -out.delta, transferId); //never arrived, put it back
+                lines.add(transferId + "," + from.name + ",?," + item + "," + (-out.delta) + "," + out.timestamp + ",undone");
+            } else {
+                lines.add(transferId + "," + from.name + "," + to.name + "," + item + "," + (-out.delta) + "," + out.timestamp + ",done");
+            }
+            transferIds.advanceTo(transferId + 1);
+        }
+        transferLog.appendAll(lines);
+        for (Location location : locations) {
+            location.service.transfersFinished();
+        }
+    }
+
+    /**
+     * The locations, main first.
+     */
+    public List<Location> getLocations() {
+        return Collections.unmodifiableList(locations);
+    }
+
+    /**
+     * A location by name, or null.
+     */
+    public Location get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Moves stock of an item from one location to another, all or nothing.
+     *
+     * @return false, changing nothing, if the first location does not have enough
+     * @throws IllegalArgumentException if a location or the item is unknown
+     */
+    public boolean transfer(String fromName, String toName, String itemName, int quantity) throws IOException {
+        Location from = byName.get(fromName);
+        Location to = byName.get(toName);
+        if (from == null || to == null || from == to) {
+            throw new IllegalArgumentException("Unknown or identical locations: " + fromName + ", " + toName);
+        }
+        int fromId = from.getStore().indexOf(itemName);
+        int toId = to.getStore().indexOf(itemName);
+        if (fromId < 0 || toId < 0) {
+            throw new IllegalArgumentException("Unknown item: " + itemName);
+        }
+
+        //always hold locations in the same order so two opposite transfers can't deadlock
+        Location first = locations.indexOf(from) < locations.indexOf(to) ? from : to;
+        Location second = first == from ? to : from;
+        first.service.holdCheckpoints();
+        second.service.holdCheckpoints();
+        try {
+            int transferId = transferIds.next();
+            if (!from.service.transferOut(fromId, quantity, transferId)) {
+                return false;
+            }
+            try {
+                to.service.transferIn(toId, quantity, transferId);
+            } catch (IOException e) {
+                from.service.transferIn(fromId, quantity, transferId); //put it back
+                throw e;
+            }
+            transferLog.append(transferId + "," + from.name + "," + to.name + "," + itemName + ","
+                    + quantity + "," + System.currentTimeMillis() + ",done");
+            return true;
+        } finally {
+            second.service.resumeCheckpoints();
+            first.service.resumeCheckpoints();
+        }
+    }
+
+    /**
+     * Total stock of each item across every location, read in parallel.
+     */
+    public Map<String, Long> totalStock() {
+        return aggregate(location -> {
+            HashMap<String, Long> totals = new HashMap<>();
+            InventoryStore store = location.getStore();
+            for (int id = 0; id < store.size(); id++) {
+                if (store.contains(id)) {
+                    totals.merge(store.getName(id), (long) store.getQuantity(id), Long::sum);
+                }
+            }
+            return totals;
+        }, (a, b) -> {
+            b.forEach((item, quantity) -> a.merge(item, quantity, Long::sum));
+            return a;
+        });
+    }
+
+    /**
+     * For each location, the items with less than {@code threshold} in stock, read in parallel.
+     */
+    public Map<String, List<String>> itemsBelow(int threshold) {
+        return aggregate(location -> {
+            ArrayList<String> low = new ArrayList<>();
+            InventoryStore store = location.getStore();
+            for (int id = 0; id < store.size(); id++) {
+                if (store.contains(id) && store.getQuantity(id) < threshold) {
+                    low.add(store.getName(id));
+                }
+            }
+            HashMap<String, List<String>> result = new HashMap<>();
+            if (!low.isEmpty()) {
+                result.put(location.name, low);
+            }
+            return result;
+        }, (a, b) -> {
+            a.putAll(b);
+            return a;
+        });
+    }
+
+    /**
+     * Runs {@code perLocation} on every location in parallel and merges the results.
+     */
+    private <R> R aggregate(Function<Location, R> perLocation, BinaryOperator<R> merge) {
+        return ForkJoinPool.commonPool().invoke(new LocationTask<>(locations, 0, locations.size(), perLocation, merge));
+    }
+
+    /**
+     * Splits the locations in half until one is left, then works on it.
+     */
+    private static class LocationTask<R> extends RecursiveTask<R> {
+        private final List<Location> locations;
+        private final int from;
+        private final int to;
+        private final Function<Location, R> perLocation;
+        private final BinaryOperator<R> merge;
+
+        LocationTask(List<Location> locations, int from, int to, Function<Location, R> perLocation,
+                     BinaryOperator<R> merge) {
+            this.locations = locations;
+            this.from = from;
+            this.to = to;
+            this.perLocation = perLocation;
+            this.merge = merge;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from == 1) {
+                return perLocation.apply(locations.get(from));
+            }
+            int middle = (from + to) >>> 1;
+            LocationTask<R> left = new LocationTask<>(locations, from, middle, perLocation, merge);
+            left.fork();
+            R right = new LocationTask<>(locations, middle, to, perLocation, merge).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+}
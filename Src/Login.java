@@ -1,11 +1,11 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.io.*;
-import java.util.Scanner;
+import java.util.Arrays;
 import javax.swing.*;
 
 /**
- * A simple login window
+ * A simple login window. Credentials are checked by {@code Main.Auth}, and a successful
+ * login starts an edit session so the window is not needed again for a while.
  */
 public class Login extends JDialog {
     private JTextField usernameField;
@@ -20,6 +20,7 @@ public class Login extends JDialog {
         // Set up the frame properties
 
         super((Frame) null, "Login", true);
+        loginSuccessful = false; // closing the window counts as a cancel
         
         setTitle("Login");
         setSize(350,200);
@@ -68,14 +69,17 @@ public class Login extends JDialog {
     private class LoginButtonListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             String username = usernameField.getText();
-            String password = new String(passwordField.getPassword());
+            char[] password = passwordField.getPassword();
             
-            // Check credentials
-            if (checkLogin(username, password)) {
+            // Check credentials and start an edit session
+            boolean valid = Main.Auth.login(username, password);
+            Arrays.fill(password, '\0'); // don't keep the password around in memory
+            if (valid) {
                 loginSuccessful = true;
                 dispose(); // Close the window
             } else {
-                messageLabel.setText("Invalid login credentials.");
+                String error = Main.Auth.getLoadError();
+                messageLabel.setText(error != null ? error : "Invalid login credentials.");
                 passwordField.setText(""); // Clear password field
             }
         }
@@ -87,52 +91,4 @@ public class Login extends JDialog {
             dispose(); // Close the window
         }
     }
-    
-    /**
-     *Checks if the provided credentials are valid
-     */
-    private boolean checkLogin(String username, String password) {
-        try {
-            File file = new File("login.dat");
-            
-            // Create default login if file doesn't exist
-            if (!file.exists()) {
-                createDefaultLoginFile();
-            }
-            
-            // Read credentials from file
-            Scanner scanner = new Scanner(file);
-            String storedUsername = "";
-            String storedPassword = "";
-            
-            if (scanner.hasNextLine()) {
-                storedUsername = scanner.nextLine();
-            }
-            if (scanner.hasNextLine()) {
-                storedPassword = scanner.nextLine();
-            }
-            scanner.close();
-            
-            // Compare credentials
-            return username.equals(storedUsername) && password.equals(storedPassword);
-            
-        } catch (FileNotFoundException e) {
-            System.out.println("Error: " + e.getMessage());
-            return false;
-        }
-    }
-    
-    /**
-     * Creates a default login file with credentials
-     */
-    private void createDefaultLoginFile() {
-        try {
-            FileWriter writer = new FileWriter("login.dat");
-            writer.write("CookieMonsta\n");
-            writer.write("ILuvCookies\n");
-            writer.close();
-        } catch (IOException e) {
-            System.out.println("Error creating login file: " + e.getMessage());
-        }
-    }
-}
\ No newline at end of file
+}
@@ -4,7 +4,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.*;
 
 /**
@@ -12,8 +18,76 @@ import javax.swing.*;
  */
 public class Main {
     public static ArrayList<InventoryItem> Inventory;
-    public static ArrayList<Order> OrderList = new ArrayList<>();
-    public static ArrayList<Delivery> DeliveryList = new ArrayList<>();
+    /**
+     * Indexed store holding the actual stock levels, {@code Inventory} holds views onto it
+     */
+    public static InventoryStore Stock = new InventoryStore();
+    /**
+     * Memory mapped file the inventory is saved to
+     */
+    public static InventorySnapshot Snapshot;
+    /**
+     * Applies, logs and saves every order, delivery and manual edit
+     */
+    public static StockService Service;
+    /**
+     * Saves changes from the windows in the background, in batches
+     */
+    public static PersistenceWriter Writer;
+    /**
+     * Every inventory change ever made, with snapshots, for rebuilding stock at any point in time
+     */
+    public static InventoryEvents Events;
+    /**
+     * Every location's inventory, the main one (Stock/Service) first
+     */
+    public static LocationSet Locations;
+    /**
+     * Low and over stock status of every item, worked out as quantities change
+     */
+    public static StockAlerts Alerts;
+    /**
+     * Staff logins (hashed, in users.dat) and edit sessions
+     */
+    public static final AuthService Auth = new AuthService(new File("users.dat"), new File("login.dat"));
+    /**
+     * Items ordered by quantity, for lowest/highest stock and quantity range queries
+     */
+    public static QuantityIndex ByQuantity;
+    /**
+     * Order and delivery history, kept in columns rather than one object per record. Holds the
+     * journal segments that reach into the analytics window, older segments only add to the totals.
+     */
+    public static volatile HistoryStore OrderHistory = new HistoryStore();
+    public static volatile HistoryStore DeliveryHistory = new HistoryStore();
+    /**
+     * Running per-item totals, kept up to date as orders and deliveries are saved
+     */
+    public static final ItemTotals Totals = new ItemTotals();
+    /**
+     * Rolling minute, hour and day counts of orders and deliveries per item
+     */
+    public static final SalesAnalytics OrderStats = new SalesAnalytics();
+    public static final SalesAnalytics DeliveryStats = new SalesAnalytics();
+    /**
+     * Guards swapping in the loaded history while new records are being added
+     */
+    private static final Object historyLock = new Object();
+    /**
+     * Orders and deliveries saved, for the metrics
+     */
+    private static final Metrics.Counter ordersSaved = Metrics.counter("orders");
+    private static final Metrics.Counter deliveriesSaved = Metrics.counter("deliveries");
+    /**
+     * Append-only journals that orders and deliveries are saved to
+     */
+    public static final OrderJournal OrderLog = new OrderJournal("orders.txt");
+    public static final OrderJournal DeliveryLog = new OrderJournal("Delivery.txt");
+    /**
+     * Ids below these were saved before this run started, they mark where the history ends
+     */
+    private static volatile int ordersBefore = 1;
+    private static volatile int deliveriesBefore = 1;
     /**
      * Enum used to consistently assign ids to items sold
      */
@@ -28,18 +102,41 @@ public class Main {
     }
 
     /**
-     * Constant storing Total number of items being sold
+     * Constant storing number of items created for a brand new inventory file
      */
     public static final int TotItems = 7;
 
+    /**
+     * Times each startup phase, the breakdown is written to startup.log
+     */
+    static final StartupTimer Startup = new StartupTimer();
+
+    /**
+     * How often the inventory is checkpointed to inventory.bin
+     */
+    static final long CHECKPOINT_SECONDS = 30;
+    /**
+     * How often the metrics are appended to metrics.log
+     */
+    static final long METRICS_SECONDS = 60;
+    /**
+     * Port of the HTTP API, 0 when it is not wanted (start with {@code --api [port]})
+     */
+    private static int apiPort;
+
     public static void main(String[] args){
+        if (args.length > 0 && args[0].equals("--api")) {
+            apiPort = args.length > 1 ? Integer.parseInt(args[1]) : ApiServer.DEFAULT_PORT;
+        }
+        Metrics.start(new File("metrics.log"), METRICS_SECONDS);
         SwingUtilities.invokeLater(() -> {
             createGUI();
         });
     }
 
     /**
-     * Create and initialize main frame as well as loading past orders and deliveries
+     * Create and show the main frame straight away, then load the inventory, orders and
+     * deliveries on background threads. Buttons are enabled as the data they need arrives.
      */
     private static void createGUI(){
         //create and set frame properties
@@ -55,131 +152,373 @@ public class Main {
 
         //frame.pack();
         Inventory = new ArrayList<>();
-        init(); //loading inventory and generating files
-        loadOrders(); //loading orders or generating files
-        loadDeliveries(); //loading delivery logs or generating new files
         frame.setVisible(true);
+        Startup.mark("frame shown");
+        loadInBackground(contentPane);
+    }
+
+    /**
+     * Runs the startup loads on background workers. The inventory and the next order and
+     * delivery ids are loaded in parallel; once all three are in, the landing screen is
+     * interactive. The full order and delivery history is then paged in behind it.
+     */
+    private static void loadInBackground(LandingFrame landing) {
+        final int steps = 5;
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService loaders = Executors.newFixedThreadPool(3, r -> {
+            Thread t = new Thread(r, "startup-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        landing.showProgress(0, steps, "Loading inventory...");
+
+        CompletableFuture<Void> inventory = CompletableFuture.runAsync(
+                () -> Startup.time("inventory", Main::init), loaders); //loading inventory and generating files
+        CompletableFuture<Void> orderIds = CompletableFuture.runAsync(
+                () -> Startup.time("order ids", Main::loadOrderIds), loaders);
+        CompletableFuture<Void> deliveryIds = CompletableFuture.runAsync(
+                () -> Startup.time("delivery ids", Main::loadDeliveryIds), loaders);
+        for (CompletableFuture<Void> step : List.of(inventory, orderIds, deliveryIds)) {
+            step.thenRun(() -> SwingUtilities.invokeLater(
+                    () -> landing.showProgress(done.incrementAndGet(), steps, "Loading...")));
+        }
+
+        CompletableFuture.allOf(inventory, orderIds, deliveryIds).whenComplete((ignored, error) -> {
+            if (error == null && Service == null) {
+                error = new IOException("inventory.bin or inventory.wal could not be opened");
+            }
+            try {
+                if (error == null) {
+                    Startup.time("recovery", Main::recover);
+                    Service.startCheckpoints(CHECKPOINT_SECONDS);
+                    Startup.time("locations", Main::openLocations);
+                    if (apiPort > 0) {
+                        startApi();
+                    }
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            if (error != null) {
+                //nothing can be saved without the inventory, so don't leave a half-loaded screen
+                failStartup(landing, error);
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                landing.watchAlerts(Alerts);
+                landing.setActionsEnabled(true);
+                landing.showProgress(done.get(), steps, "Loading history...");
+                Startup.mark("interactive");
+            });
+
+            //read the credentials now so the first login doesn't wait on the file
+            CompletableFuture.runAsync(Auth::load, loaders);
+
+            //history is only needed for reporting, page it in behind the interactive screen
+            CompletableFuture<Void> orders = CompletableFuture.runAsync(
+                    () -> Startup.time("order history", Main::loadOrders), loaders); //loading orders
+            CompletableFuture<Void> deliveries = CompletableFuture.runAsync(
+                    () -> Startup.time("delivery history", Main::loadDeliveries), loaders); //loading delivery logs
+            for (CompletableFuture<Void> step : List.of(orders, deliveries)) {
+                step.thenRun(() -> SwingUtilities.invokeLater(
+                        () -> landing.showProgress(done.incrementAndGet(), steps, "Loading history...")));
+            }
+            CompletableFuture.allOf(orders, deliveries).whenComplete((none, historyError) -> {
+                if (historyError != null) {
+                    Metrics.error("startup", historyError);
+                }
+                loaders.shutdown();
+                Startup.mark("history loaded");
+                Startup.writeReport("startup.log");
+                SwingUtilities.invokeLater(() -> landing.showProgress(steps, steps, "Ready"));
+            });
+        });
+    }
+
+    /**
+     * Reports that the inventory could not be opened and exits once the message is closed.
+     */
+    private static void failStartup(LandingFrame landing, Throwable error) {
+        Metrics.error("startup", error);
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(landing, "The inventory could not be opened: " + cause.getMessage(),
+                    "Startup failed", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        });
     }
 
     /**
-     * initialization method - handles initial storage/retrieval of inventory data form file
+     * initialization method - handles initial storage/retrieval of inventory data form file.
+     * The inventory lives in the binary snapshot inventory.bin; the first time the program runs
+     * after the text format was used, the old text file is migrated into a new snapshot.
      */
-    private static void init(){
+    static void init(){
         //file storing actual inventoy
-        File inv = new File("inventory.txt");
+        File snapshotFile = new File("inventory.bin");
         File invLog = new File("invLog.txt");
 
         try (PrintWriter writeLog = new PrintWriter(invLog)) {
-            if (!inv.exists()) { //check if the inventory file exists
-                writeLog.println("File not found. Creating new inventory file...");
-    
-                if (inv.createNewFile()) {//ifit doesnt exist we create it
-                    writeLog.println("inventory.txt created successfully.");
-                } else {
-                    writeLog.println("Failed to create inventory.txt.");
-                }
-                //using try with resources so PrintWriter automatically closes when the try block is completed
-                try (PrintWriter writeInv = new PrintWriter(inv)) {
-                    //make sure inventory is empty
-                    Inventory = new ArrayList<>();
-                    // for items with index 0 to 1 less than totalnumber of items
-                    for (int i = 0; i < TotItems; i++) {
-                        //pull the name from the enum
-                        String name = idNum.values()[i].name();
-                        //pull the id from the enum
-                        int id = idNum.values()[i].ordinal();
-                        //write to file in format id name quantity
-                        writeInv.println(id + " " + name + " 0");
-                        //add to arraylist
-                        Inventory.add(new InventoryItem(name, 0, id));
+            //make sure inventory is empty
+            Stock = new InventoryStore();
+            if (snapshotFile.exists()) { //check if the inventory snapshot exists
+                writeLog.println("Snapshot found. Loading existing inventory...");
+                try {
+                    Snapshot = InventorySnapshot.open(snapshotFile);
+                    int damaged = Snapshot.load(Stock);
+                    if (damaged > 0) {
+                        writeLog.println(damaged + " damaged inventory slots were skipped or loaded as 0.");
                     }
+                } catch (IOException e) {
+                    writeLog.println("Inventory snapshot could not be read: " + e.getMessage());
+                    Metrics.error("init", e);
+                    Stock = new InventoryStore();
+                    Snapshot = null;
                 }
-    
-            } else {
-                writeLog.println("File found. Loading existing inventory...");
-                Inventory = new ArrayList<>();
-    
-                try (Scanner read = new Scanner(inv)) {
-                    while (read.hasNextLine()) {
-                        String line = read.nextLine();
-                        String[] parts = line.split(" ");
-                        if (parts.length >= 3) {
-                            int itemID = Integer.parseInt(parts[0]);
-                            String itemName = parts[1];
-                            int itemQuantity = Integer.parseInt(parts[2]);
-                            Inventory.add(new InventoryItem(itemName, itemQuantity, itemID));
-                        }
-                    }
-                } catch (FileNotFoundException e) {
-                    writeLog.println("Error reading inventory file.");
-                    e.printStackTrace();
-                }
+            }
+            if (Snapshot == null) {
+                migrateTextInventory(writeLog);
+                Snapshot = InventorySnapshot.create(snapshotFile, Stock);
+                writeLog.println("inventory.bin created successfully.");
+            }
+            //changes are logged here first and copied into the snapshot at checkpoints
+            InventoryWal wal = InventoryWal.open(new File("inventory.wal"));
+            Service = new StockService(Stock, Snapshot, wal, OrderLog, DeliveryLog);
+            Writer = new PersistenceWriter(Service);
+            try {
+                //checkpoints archive the wal here instead of just dropping it
+                Events = InventoryEvents.open(new File("events.log"), new File("events.snap"));
+                Service.setEvents(Events);
+            } catch (IOException e) {
+                Metrics.error("events", e); //the inventory still works, without a history
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("init", e);
         }
+
+        //keep a view of every item in the arraylist
+        Inventory = new ArrayList<>();
+        for (int id = 0; id < Stock.size(); id++) {
+            if (Stock.contains(id)) {
+                Inventory.add(Stock.item(id));
+            }
+        }
+
+        //per-item thresholds, defaults apply when the file is missing
+        Alerts = new StockAlerts(Stock, new File("alerts.txt"));
+        ByQuantity = new QuantityIndex(Stock);
+        Metrics.gauge("stock.lowItems", () -> Alerts.getLowItems().size());
+        Metrics.gauge("stock.overItems", () -> Alerts.getOverItems().size());
     }
 
     /**
-     * loads past orders into memory from file  
+     * One-time migration from the old text inventory. Older versions loaded inventory.txt
+     * but saved to Inventory.txt, so the most recently written of the two is used.
+     * If neither exists a new inventory with every item at 0 is made.
      */
+    private static void migrateTextInventory(PrintWriter writeLog) {
+        File inv = null;
+        for (String name : new String[] {"inventory.txt", "Inventory.txt"}) {
+            File candidate = new File(name);
+            if (candidate.exists() && (inv == null || candidate.lastModified() > inv.lastModified())) {
+                inv = candidate;
+            }
+        }
 
-    private static void loadOrders() {
-        File ordersFile = new File("orders.txt");
-        int maxId = 0;
-        //if the file exists
-        if (ordersFile.exists()) {
-            //try with resources to auto close scanner when try block done
-            try (Scanner scanner = new Scanner(ordersFile)) {
-                while (scanner.hasNextLine()) {
-                    //split read line into parts
-                    String[] parts = scanner.nextLine().split(","); //comma separated because we use default toString
-                    //there should be 3 parts everytime but just to be sure
-                    if (parts.length == 3) {
-                        int id = Integer.parseInt(parts[0]);
-                        String itemName = parts[1];
-                        int quantity = Integer.parseInt(parts[2]);
-                        //add order to list
-                        Main.OrderList.add(new Order(itemName, quantity));
-                        //update maximum id so that the last id in the arraylist is always unique
-                        maxId = Math.max(maxId, id);
-                    }
+        if (inv == null) {
+            writeLog.println("File not found. Creating new inventory...");
+            // for items with index 0 to 1 less than totalnumber of items
+            for (int i = 0; i < TotItems; i++) {
+                //pull the name and id from the enum
+                String name = idNum.values()[i].name();
+                int id = idNum.values()[i].ordinal();
+                Stock.add(id, name, 0);
+            }
+            return;
+        }
+
+        writeLog.println("Migrating inventory from " + inv.getName() + "...");
+        try (Scanner read = new Scanner(inv)) {
+            while (read.hasNextLine()) {
+                String line = read.nextLine();
+                String[] parts = line.split(" ");
+                if (parts.length >= 3) {
+                    int itemID = Integer.parseInt(parts[0]);
+                    String itemName = parts[1];
+                    int itemQuantity = Integer.parseInt(parts[2]);
+                    Stock.add(itemID, itemName, itemQuantity);
                 }
-                Order.setNextId(maxId + 1); // ensure ID is always unique
-            } catch (IOException e) {
-                e.printStackTrace();
             }
+        } catch (FileNotFoundException e) {
+            writeLog.println("Error reading inventory file.");
+            Metrics.error("init", e);
+        }
+    }
+
+    /**
+     * Replays inventory changes logged after the last checkpoint, so the inventory and the
+     * order and delivery journals agree again after a crash. Must run after {@code init},
+     * {@code loadOrderIds} and {@code loadDeliveryIds}.
+     */
+    static void recover() {
+        try {
+            int replayed = Service.recover(ordersBefore - 1, deliveriesBefore - 1);
+            if (replayed > 0) {
+                System.out.println("Recovered " + replayed + " inventory changes from inventory.wal");
+            }
+            //records re-appended to the journals by recovery belong to the history too,
+            //and nothing has been saved in this run yet
+            ordersBefore = Order.peekNextId();
+            deliveriesBefore = Delivery.peekNextId();
+        } catch (IOException e) {
+            Metrics.error("recovery", e);
         }
     }
 
     /**
-     * loads past deliveries into memory from file
+     * Starts the HTTP API for the tills. Must run after {@code recover}.
      */
+    static void startApi() {
+        try {
+            new ApiServer(apiPort).start();
+        } catch (IOException e) {
+            Metrics.error("api", e);
+        }
+    }
 
-    private static void loadDeliveries() {
-        File DeliveryFile = new File("Delivery.txt");
-        int maxId = 0;
-        //if the file exists
-        if (DeliveryFile.exists()) {
-            //try with resources to auto close scanner when try block done
-            try (Scanner scanner = new Scanner(DeliveryFile)) {
-                while (scanner.hasNextLine()) {
-                    //split read line into parts
-                    String[] parts = scanner.nextLine().split(","); //comma separated because we use default toString
-                    //there should be 3 parts everytime but just to be sure
-                    if (parts.length == 3) {
-                        int id = Integer.parseInt(parts[0]);
-                        String itemName = parts[1];
-                        int quantity = Integer.parseInt(parts[2]);
-                        //add order to list
-                        Main.OrderList.add(new Order(itemName, quantity));
-                        //update maximum id so that the last id in the arraylist is always unique
-                        maxId = Math.max(maxId, id);
-                    }
-                }
-                Order.setNextId(maxId + 1); // ensure ID is always unique
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Opens the other locations listed in locations.txt, each recovered from its own files.
+     * Must run after {@code recover}.
+     */
+    static void openLocations() {
+        try {
+            Locations = LocationSet.open(Service, Writer, new File("locations.txt"), CHECKPOINT_SECONDS);
+        } catch (IOException e) {
+            Metrics.error("locations", e);
+        }
+    }
+
+    /**
+     * Opens the order id generator from its saved high-water mark, reading only the last record
+     * of the order journal (for the history boundary and in case the mark file is missing)
+     */
+    static void loadOrderIds() {
+        try {
+            int lastId = OrderLog.lastId();
+            //ids carry on from the saved high-water mark, never below the journal
+            Order.setIdGenerator(IdGenerator.open(new File("orders.id"), lastId + 1));
+            ordersBefore = lastId + 1;
+        } catch (IOException e) {
+            Metrics.error("loadOrders", e);
+        }
+    }
+
+    /**
+     * Opens the delivery id generator from its saved high-water mark, reading only the last record
+     * of the delivery journal
+     */
+    static void loadDeliveryIds() {
+        try {
+            int lastId = DeliveryLog.lastId();
+            Delivery.setIdGenerator(IdGenerator.open(new File("deliveries.id"), lastId + 1));
+            deliveriesBefore = lastId + 1;
+        } catch (IOException e) {
+            Metrics.error("loadDeliveries", e);
+        }
+    }
+
+    /**
+     * loads past orders into memory from the order journal. Must run after {@code loadOrderIds}.
+     * Orders saved while the history is loading are already in {@code OrderHistory}, so only
+     * records from before startup are read in, and the new ones are added after them.
+     * Compressed segments older than the analytics window are not read, only their totals.
+     */
+    static void loadOrders() {
+        HistoryStore history = new HistoryStore();
+        ArrayList<Runnable> older = new ArrayList<>();
+        try {
+            //journal reader hands back every record, old formats included
+            OrderLog.readRecent(System.currentTimeMillis() - OrderStats.maxWindow(),
+                    (id, itemName, quantity, timestamp) -> {
+                        if (id < ordersBefore) {
+                            history.append(id, itemName, quantity, timestamp);
+                        }
+                    },
+                    (itemName, count, quantity, lastTimestamp) -> older.add(() -> {
+                        int itemId = Stock.indexOf(itemName);
+                        if (itemId >= 0) {
+                            Totals.addOrders(itemId, count, quantity, lastTimestamp);
+                        }
+                    }));
+        } catch (IOException e) {
+            Metrics.error("loadOrders", e);
+        }
+        synchronized (historyLock) {
+            history.appendAll(OrderHistory);
+            OrderHistory = history;
+            Totals.rebuildOrders(history, Stock); //totals are built once here, then kept up to date
+            older.forEach(Runnable::run);
+            OrderStats.rebuild(history, Stock, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * loads past deliveries into memory from the delivery journal. Must run after {@code loadDeliveryIds}.
+     */
+    static void loadDeliveries() {
+        HistoryStore history = new HistoryStore();
+        ArrayList<Runnable> older = new ArrayList<>();
+        try {
+            DeliveryLog.readRecent(System.currentTimeMillis() - DeliveryStats.maxWindow(),
+                    (id, itemName, quantity, timestamp) -> {
+                        if (id < deliveriesBefore) {
+                            history.append(id, itemName, quantity, timestamp);
+                        }
+                    },
+                    (itemName, count, quantity, lastTimestamp) -> older.add(() -> {
+                        int itemId = Stock.indexOf(itemName);
+                        if (itemId >= 0) {
+                            Totals.addDeliveries(itemId, count, quantity, lastTimestamp);
+                        }
+                    }));
+        } catch (IOException e) {
+            Metrics.error("loadDeliveries", e);
+        }
+        synchronized (historyLock) {
+            history.appendAll(DeliveryHistory);
+            DeliveryHistory = history;
+            Totals.rebuildDeliveries(history, Stock);
+            older.forEach(Runnable::run);
+            DeliveryStats.rebuild(history, Stock, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Adds a newly saved order to the order history and the running totals.
+     */
+    static void recordOrder(Order order) {
+        synchronized (historyLock) {
+            OrderHistory.append(order.getId(), order.getItemName(), order.getQuantity(), order.getTimestamp());
+            ordersSaved.increment();
+            int itemId = Stock.indexOf(order.getItemName());
+            if (itemId >= 0) {
+                Totals.recordOrder(itemId, order.getQuantity(), order.getTimestamp());
+                OrderStats.record(itemId, order.getQuantity(), order.getTimestamp());
+            }
+        }
+    }
+
+    /**
+     * Adds a newly saved delivery to the delivery history and the running totals.
+     */
+    static void recordDelivery(Delivery delivery) {
+        synchronized (historyLock) {
+            DeliveryHistory.append(delivery.getId(), delivery.getItemName(), delivery.getQuantity(), delivery.getTimestamp());
+            deliveriesSaved.increment();
+            int itemId = Stock.indexOf(delivery.getItemName());
+            if (itemId >= 0) {
+                Totals.recordDelivery(itemId, delivery.getQuantity(), delivery.getTimestamp());
+                DeliveryStats.record(itemId, delivery.getQuantity(), delivery.getTimestamp());
             }
         }
     }
@@ -0,0 +1,287 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Counters, timers and gauges for the busy parts of the program, readable over JMX and
+ * written to a log file every so often.
+ *
+ * <p>Metrics are looked up by name once, normally into a static field, and then updated
+ * without locks: counters and timer totals are {@code LongAdder}s, which stay cheap when
+ * many threads update them at once, and timers record into a {@link LatencyHistogram}.
+ * Gauges are read only when a value is wanted.
+ *
+ * <p>Every {@code seconds} passed to {@link #start}, the rates of counters and timers and
+ * the latency percentiles of timers are worked out for the interval just ended, and one
+ * line with every value is appended to the dump file. The same values are attributes of
+ * the MBean {@code bakery:type=Metrics}, so they can be watched in JConsole or VisualVM:
+ * <ul>
+ *   <li>counter {@code name}: {@code name.count}, {@code name.perSecond}</li>
+ *   <li>timer {@code name}: the above plus {@code name.meanMs}, {@code name.p50Ms},
+ *       {@code name.p99Ms} and {@code name.maxMs} over the last interval</li>
+ *   <li>gauge {@code name}: {@code name}</li>
+ * </ul>
+ */
+public class Metrics {
+
+    public static final String OBJECT_NAME = "bakery:type=Metrics";
+
+    /**
+     * A count of events, e.g. orders saved or bytes written.
+     */
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+        private long lastCount;
+        private volatile double perSecond;
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        void tick(double seconds) {
+            long now = count.sum();
+            perSecond = (now - lastCount) / seconds;
+            lastCount = now;
+        }
+
+        void values(String name, Map<String, Number> out) {
+            out.put(name + ".count", getCount());
+            out.put(name + ".perSecond", round(perSecond));
+        }
+    }
+
+    /**
+     * How long something takes, e.g. saving an order.
+     */
+    public static class Timer extends Counter {
+        private final LatencyHistogram current = new LatencyHistogram();
+        private volatile LatencyHistogram last = new LatencyHistogram();
+
+        public void record(long nanos) {
+            increment();
+            current.record(nanos);
+        }
+
+        /**
+         * Runs {@code work} and records how long it took.
+         */
+        public void time(Runnable work) {
+            long start = System.nanoTime();
+            try {
+                work.run();
+            } finally {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * {@code work}, timed each time it runs.
+         */
+        public Runnable wrap(Runnable work) {
+            return () -> time(work);
+        }
+
+        @Override
+        void tick(double seconds) {
+            super.tick(seconds);
+            last = current.drain();
+        }
+
+        @Override
+        void values(String name, Map<String, Number> out) {
+            super.values(name, out);
+            LatencyHistogram interval = last;
+            out.put(name + ".meanMs", round(interval.getMean() / 1e6));
+            out.put(name + ".p50Ms", round(interval.valueAtPercentile(50) / 1e6));
+            out.put(name + ".p99Ms", round(interval.valueAtPercentile(99) / 1e6));
+            out.put(name + ".maxMs", round(interval.getMax() / 1e6));
+        }
+    }
+
+    private static final ConcurrentSkipListMap<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final ConcurrentSkipListMap<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static final Counter errors = counter("errors");
+
+    private static ScheduledExecutorService dumper;
+    private static long lastTick = System.nanoTime();
+
+    private Metrics() {
+    }
+
+    /**
+     * The counter with this name, created the first time it is asked for.
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * The timer with this name, created the first time it is asked for.
+     */
+    public static Timer timer(String name) {
+        Counter metric = counters.computeIfAbsent(name, n -> new Timer());
+        if (!(metric instanceof Timer)) {
+            throw new IllegalArgumentException(name + " is a counter, not a timer");
+        }
+        return (Timer) metric;
+    }
+
+    /**
+     * Registers a value that is read when it is wanted, replacing any gauge of the same name.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Counts a failure under {@code errors} and {@code errors.<where>}, and prints it as before.
+     */
+    public static void error(String where, Throwable e) {
+        errors.increment();
+        counter("errors." + where).increment();
+        e.printStackTrace();
+    }
+
+    /**
+     * Every value, by attribute name, as of the last interval.
+     */
+    public static Map<String, Number> values() {
+        LinkedHashMap<String, Number> out = new LinkedHashMap<>();
+        counters.forEach((name, metric) -> metric.values(name, out));
+        gauges.forEach((name, value) -> out.put(name, value.getAsLong()));
+        return out;
+    }
+
+    /**
+     * Registers the MBean and appends the values to {@code dumpFile} every {@code seconds}.
+     */
+    public static synchronized void start(File dumpFile, long seconds) {
+        if (dumper != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsBean(), name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(dumpFile), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Closes the interval and appends one line with every value to the dump file.
+     */
+    static synchronized void dump(File dumpFile) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastTick) / 1e9);
+        lastTick = now;
+        counters.values().forEach(metric -> metric.tick(seconds));
+
+        StringBuilder line = new StringBuilder(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        values().forEach((name, value) -> line.append(' ').append(name).append('=').append(value));
+        try (PrintWriter out = new PrintWriter(new FileWriter(dumpFile, StandardCharsets.UTF_8, true))) {
+            out.println(line);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    /**
+     * Exposes {@link #values()} as read-only MBean attributes. The attributes are listed
+     * afresh each time, so metrics created after registration show up too.
+     */
+    private static class MetricsBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> all = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (all.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, all.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> all = values();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[all.size()];
+            int i = 0;
+            for (Map.Entry<String, Number> entry : all.entrySet()) {
+                attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Bakery inventory metrics", attributes,
+                    null, null, null);
+        }
+    }
+}
@@ -9,9 +9,9 @@
 public class Order {
     
     /**
-     * Used to generate the id of the order.
+     * Used to generate the id of the order. Replaced by a persistent generator at startup.
      */
-    private static int nextId = 1;
+    private static volatile IdGenerator ids = IdGenerator.inMemory(1);
 
     /**
      * Unique identifier of the order.
@@ -29,15 +29,40 @@ public class Order {
     private int quantity;
 
     /**
-         * Constructs a new Order with the specified details. An id is auto-generated for each order using nextId.
+     * Time the order was recorded, in milliseconds since the epoch.
+     */
+    private long timestamp;
+
+    /**
+         * Constructs a new Order with the specified details. An id is auto-generated for each order by the id generator.
          *
          * @param itemName      Name of the item being ordered
          * @param quantity      Quantity of the item being ordered
      */
     public Order(String itemName, int quantity) {
-        this.id = nextId++;
+        this.id = ids.next();
+        this.itemName = itemName;
+        this.quantity = quantity;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+         * Rebuilds an order that was read back from the journal. No new id is generated.
+         *
+         * @param id            Id the order was saved with
+         * @param itemName      Name of the item
+         * @param quantity      Quantity of the item
+         * @param timestamp     Time the order was recorded
+     */
+    public Order(int id, String itemName, int quantity, long timestamp) {
+        this.id = id;
         this.itemName = itemName;
         this.quantity = quantity;
+        this.timestamp = timestamp;
+    }
+
+    public int getId() {
+        return id;
     }
 
     public String getItemName() {
@@ -48,6 +73,10 @@ public class Order {
         return quantity;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
     /**
      * Returns a string representation of the order.
      *
@@ -55,10 +84,27 @@ public class Order {
      */
     @Override
     public String toString() {
-        return itemName + "," + quantity;
+        return id + "," + itemName + "," + quantity + "," + timestamp;
     }
 
+    /**
+     * Makes sure new ids are at least {@code id}; never moves the generator backwards.
+     */
     public static void setNextId(int id) {
-        nextId = id;
+        ids.advanceTo(id);
+    }
+
+    /**
+     * Id the next new one will get, if no other thread gets there first.
+     */
+    public static int peekNextId() {
+        return ids.peek();
+    }
+
+    /**
+     * Sets the generator new ids come from.
+     */
+    public static void setIdGenerator(IdGenerator generator) {
+        ids = generator;
     }
 }
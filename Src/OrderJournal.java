@@ -0,0 +1,952 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The {@code OrderJournal} class is an append-only log used for orders and deliveries.
+ * Each save only writes the new record to the end of the file instead of rewriting
+ * every record that was ever saved.
+ *
+ * <p>Writes use group commit: records handed to the journal are queued and a single
+ * background writer thread appends everything that is waiting and then forces it to
+ * disk once. Callers block until their own record is on disk, so a burst of saves from
+ * several windows shares one fsync instead of paying for one each.
+ *
+ * <p>Record format (one per line, comma separated):
+ * <pre>
+ * id,itemName,quantity,timestamp
+ * </pre>
+ * which is the same format produced by {@code Order.toString()} and {@code Delivery.toString()}.
+ *
+ * <p>Segments: new records go to the active file (e.g. {@code orders.txt}). Once it passes
+ * {@link #SEGMENT_BYTES} it is sealed by renaming it to the next segment
+ * ({@code orders.txt.000001}) and a new active file is started. A background thread then
+ * gzips the sealed segment into {@code orders.txt.000001.gz} in blocks of
+ * {@value #BLOCK_RECORDS} records, each its own gzip member, and adds it to the index
+ * {@code orders.txt.idx}. The index is small: per block, its offset in the segment and its
+ * range of ids and timestamps, and per segment, the count, units and last time of each item.
+ * With it:
+ * <ul>
+ *   <li>{@link #readIds} and {@link #readBetween} decompress only the blocks that can hold
+ *       the records asked for,</li>
+ *   <li>{@link #readRecent} reads only the segments that reach back to a given time and
+ *       hands back the per-item totals of the older ones, so loading at startup does not
+ *       grow with the age of the business,</li>
+ *   <li>old records take a fraction of the disk space of the text.</li>
+ * </ul>
+ * Each step of compressing is safe to interrupt: the gzip file is written under a temporary
+ * name, the index is replaced in one rename, and the plain segment is deleted last; anything
+ * left part way is redone when the journal next starts writing.
+ */
+public class OrderJournal {
+
+    /**
+     * Callback used when reading records back from a journal file.
+     */
+    public interface RecordHandler {
+        void record(int id, String itemName, int quantity, long timestamp);
+    }
+
+    /**
+     * Callback for the per-item totals of a compressed segment that was not read.
+     */
+    public interface TotalsHandler {
+        void totals(String itemName, int count, long quantity, long lastTimestamp);
+    }
+
+    /**
+     * Size at which the active file is sealed into a segment.
+     */
+    public static final long SEGMENT_BYTES = 8L << 20;
+    /**
+     * Records per gzip block of a compressed segment.
+     */
+    public static final int BLOCK_RECORDS = 4096;
+
+    private static final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-compress");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File file;
+    private final long segmentBytes;
+    private final File indexFile;
+    private final Pattern segmentName;
+
+    /**
+     * Held to read while reading across segments, and to write while sealing a segment or
+     * swapping one for its compressed copy, so a reader never misses or repeats a segment.
+     */
+    private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
+    /**
+     * Compressed segments by number, as in the index file. Replaced, never changed, under the
+     * write lock; null until first needed.
+     */
+    private volatile TreeMap<Integer, Segment> index;
+
+    /**
+     * Number the next sealed segment gets, set when the writer starts.
+     */
+    private int nextSegment;
+
+    /**
+     * Records waiting to be written by the writer thread.
+     */
+    private final ArrayList<String> pending = new ArrayList<>();
+
+    /**
+     * Number of records handed to the journal so far.
+     */
+    private long appendedCount;
+
+    /**
+     * Number of records known to be on disk.
+     */
+    private long durableCount;
+
+    /**
+     * Records up to this count were part of a batch that failed to write.
+     */
+    private long failedCount;
+    private IOException failure;
+
+    private Thread writer;
+
+    private static final Metrics.Counter bytesWritten = Metrics.counter("journal.bytesWritten");
+    private static final Metrics.Timer forces = Metrics.timer("journal.force");
+    private static final Metrics.Timer compressions = Metrics.timer("journal.compress");
+
+    /**
+     * Creates a journal backed by the given file. The file is created on the first append.
+     *
+     * @param fileName name of the journal file
+     */
+    public OrderJournal(String fileName) {
+        this(fileName, SEGMENT_BYTES);
+    }
+
+    /**
+     * Creates a journal whose active file is sealed once it reaches {@code segmentBytes}.
+     */
+    public OrderJournal(String fileName, long segmentBytes) {
+        this.file = new File(fileName).getAbsoluteFile();
+        this.segmentBytes = segmentBytes;
+        this.indexFile = new File(file.getPath() + ".idx");
+        this.segmentName = Pattern.compile(Pattern.quote(file.getName()) + "\\.(\\d{6})(\\.gz)?");
+    }
+
+    /**
+     * The active file, which holds the records saved since the last segment was sealed.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends one record and waits until it has been forced to disk.
+     *
+     * @param record the record line, normally {@code order.toString()}
+     * @throws IOException if the batch containing the record could not be written
+     */
+    public void append(String record) throws IOException {
+        ArrayList<String> records = new ArrayList<>(1);
+        records.add(record);
+        appendAll(records);
+    }
+
+    /**
+     * Appends several records and waits until all of them have been forced to disk.
+     * The records are written as part of the same batch.
+     *
+     * @param records the record lines to append
+     * @throws IOException if the batch containing the records could not be written
+     */
+    public synchronized void appendAll(List<String> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        pending.addAll(records);
+        appendedCount += records.size();
+        long myCount = appendedCount;
+        startWriter();
+        notifyAll(); //wake the writer thread
+
+        boolean interrupted = false;
+        while (durableCount < myCount && failedCount < myCount) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (durableCount < myCount) {
+            throw new IOException("Could not write to " + file.getName(), failure);
+        }
+    }
+
+    private void startWriter() {
+        if (writer == null) {
+            writer = new Thread(this::writeLoop, "journal-" + file.getName());
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Body of the writer thread - takes everything that is pending, appends it and forces once.
+     */
+    private void writeLoop() {
+        FileChannel channel = null;
+        try {
+            channel = openActive();
+            try {
+                resumeSegments();
+            } catch (IOException e) {
+                //segments are left as they are until the next run, appending carries on
+                Metrics.error("journal", e);
+            }
+            while (true) {
+                ArrayList<String> batch;
+                long batchEnd;
+                synchronized (this) {
+                    while (pending.isEmpty()) {
+                        wait();
+                    }
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                    batchEnd = appendedCount;
+                }
+
+                IOException error = null;
+                long batchStart = channel.position();
+                try {
+                    StringBuilder text = new StringBuilder(batch.size() * 32);
+                    for (String record : batch) {
+                        text.append(record).append(System.lineSeparator());
+                    }
+                    ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                    int length = bytes.remaining();
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    long forceStart = System.nanoTime();
+                    channel.force(false); //one fsync for the whole batch
+                    forces.record(System.nanoTime() - forceStart);
+                    bytesWritten.add(length);
+                } catch (IOException e) {
+                    error = e;
+                    //don't leave part of the batch for the next one to be glued onto
+                    try {
+                        channel.truncate(batchStart);
+                        channel.position(batchStart);
+                    } catch (IOException truncateError) {
+                        Metrics.error("journal", truncateError);
+                    }
+                }
+
+                synchronized (this) {
+                    if (error == null) {
+                        durableCount = batchEnd;
+                    } else {
+                        failure = error;
+                        failedCount = batchEnd;
+                    }
+                    notifyAll();
+                }
+                if (error == null && channel.size() >= segmentBytes) {
+                    channel = seal(channel);
+                }
+            }
+        } catch (IOException e) {
+            //journal could not be opened at all, fail everyone waiting now and later
+            synchronized (this) {
+                failure = e;
+                failedCount = Long.MAX_VALUE;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                Metrics.error("journal", e);
+            }
+        }
+    }
+
+    /**
+     * Opens the active file for appending, first cutting off a record left half written by a
+     * crash, so the next record starts on a line of its own instead of being glued onto it.
+     */
+    private FileChannel openActive() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long end = completeLength(channel);
+        if (end < channel.size()) {
+            channel.truncate(end);
+            channel.force(false);
+        }
+        channel.position(end);
+        return channel;
+    }
+
+    /**
+     * Length of the file up to and including its last line break.
+     */
+    private static long completeLength(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            int length = (int) Math.min(buffer.capacity(), end);
+            long start = end - length;
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+                //read the whole chunk
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * Seals the active file as the next segment, queues it for compression and starts a new
+     * active file. If a reader is going through the segments right now, the active file is
+     * kept and sealing is tried again after the next batch.
+     */
+    private FileChannel seal(FileChannel channel) throws IOException {
+        if (!segmentLock.writeLock().tryLock()) {
+            return channel;
+        }
+        try {
+            channel.close();
+            int number = nextSegment;
+            try {
+                Files.move(file.toPath(), segmentFile(number).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                nextSegment++;
+                compressor.execute(() -> compress(number));
+            } catch (IOException e) {
+                Metrics.error("journal", e); //keep appending to the active file
+            }
+            return openActive();
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Picks up where an earlier run left off: finds the next segment number, deletes plain
+     * segments whose compressed copy is already in the index, and compresses the rest.
+     */
+    private void resumeSegments() throws IOException {
+        int last = 0;
+        String[] names = file.getParentFile().list();
+        for (String name : names == null ? new String[0] : names) {
+            Matcher matcher = segmentName.matcher(name);
+            if (matcher.matches()) {
+                last = Math.max(last, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        nextSegment = last + 1;
+
+        TreeMap<Integer, Segment> compressed = index();
+        for (int number : plainSegments()) {
+            if (compressed.containsKey(number)) {
+                Files.deleteIfExists(segmentFile(number).toPath());
+            } else {
+                compressor.execute(() -> compress(number));
+            }
+        }
+    }
+
+    /**
+     * Compresses a sealed segment block by block, adds it to the index and deletes the plain
+     * segment. Runs on the compressor thread.
+     */
+    private void compress(int number) {
+        long start = System.nanoTime();
+        File plain = segmentFile(number);
+        File compressed = compressedFile(number);
+        File temp = new File(compressed.getPath() + ".tmp");
+        Segment segment = new Segment(number);
+        try {
+            try (BufferedReader in = new BufferedReader(new FileReader(plain, StandardCharsets.UTF_8));
+                 FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                StringBuilder text = new StringBuilder();
+                //records are written back in the current format, so ids no longer depend on earlier lines
+                RecordHandler add = (id, itemName, quantity, timestamp) -> {
+                    segment.add(id, itemName, quantity, timestamp);
+                    text.append(id).append(',').append(itemName).append(',').append(quantity)
+                            .append(',').append(timestamp).append(System.lineSeparator());
+                };
+                String line;
+                int lastId = lastIdBefore(number);
+                long offset = 0;
+                while ((line = in.readLine()) != null) {
+                    if (segment.open.records == BLOCK_RECORDS) {
+                        offset += writeBlock(out, text, segment, offset);
+                    }
+                    int id = parse(line, lastId, add);
+                    if (id >= 0) {
+                        lastId = id;
+                    }
+                }
+                if (segment.open.records > 0) {
+                    writeBlock(out, text, segment, offset);
+                }
+                out.force(true);
+            }
+            Files.move(temp.toPath(), compressed.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            segmentLock.writeLock().lock();
+            try {
+                TreeMap<Integer, Segment> segments = new TreeMap<>(index());
+                segments.put(number, segment);
+                writeIndex(segments);
+                index = segments;
+                Files.deleteIfExists(plain.toPath());
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+            compressions.record(System.nanoTime() - start);
+        } catch (IOException e) {
+            //the plain segment is still there and is read instead, compressing is retried next run
+            Metrics.error("journal", e);
+        }
+    }
+
+    /**
+     * Gzips the records of the open block as one member at {@code offset}, closes the block
+     * and returns the compressed length.
+     */
+    private static int writeBlock(FileChannel out, StringBuilder text, Segment segment, long offset)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        text.setLength(0);
+        ByteBuffer block = ByteBuffer.wrap(bytes.toByteArray());
+        int length = block.remaining();
+        while (block.hasRemaining()) {
+            out.write(block);
+        }
+        segment.closeBlock(offset, length);
+        return length;
+    }
+
+    /**
+     * Reads every record in a journal file. Lines written by older versions of the program
+     * ({@code itemName,quantity} or {@code id,itemName,quantity}) are still accepted; lines
+     * without an id are numbered after the previous record and lines without a timestamp get 0.
+     *
+     * @param file    the journal file
+     * @param handler receives each record in file order
+     * @throws IOException if the file could not be read
+     */
+    public static void read(File file, RecordHandler handler) throws IOException {
+        readFile(file, 0, handler);
+    }
+
+    /**
+     * Reads a plain journal file, numbering lines without an id after {@code lastId}.
+     *
+     * @return the id of the last record read, or {@code lastId} if there was none
+     */
+    private static int readFile(File file, int lastId, RecordHandler handler) throws IOException {
+        if (!file.exists()) {
+            return lastId;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            return readLines(in, lastId, handler);
+        }
+    }
+
+    private static int readLines(BufferedReader in, int lastId, RecordHandler handler) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            int id = parse(line, lastId, handler);
+            if (id >= 0) {
+                lastId = id;
+            }
+        }
+        return lastId;
+    }
+
+    /**
+     * Parses one line and hands it to {@code handler}.
+     *
+     * @return the id of the record, or -1 if the line is blank or damaged
+     */
+    private static int parse(String line, int lastId, RecordHandler handler) {
+        String[] parts = line.split(",");
+        try {
+            int id;
+            String itemName;
+            int quantity;
+            long timestamp = 0;
+            if (parts.length == 4) {
+                id = Integer.parseInt(parts[0]);
+                itemName = parts[1];
+                quantity = Integer.parseInt(parts[2]);
+                timestamp = Long.parseLong(parts[3]);
+            } else if (parts.length == 3) {
+                id = Integer.parseInt(parts[0]);
+                itemName = parts[1];
+                quantity = Integer.parseInt(parts[2]);
+            } else if (parts.length == 2) {
+                id = lastId + 1;
+                itemName = parts[0];
+                quantity = Integer.parseInt(parts[1]);
+            } else {
+                return -1; //blank or damaged line
+            }
+            handler.record(id, itemName, quantity, timestamp);
+            return id;
+        } catch (NumberFormatException e) {
+            //partially written last line after a crash, skip it
+            return -1;
+        }
+    }
+
+    /**
+     * Reads every record of the journal, segments first, oldest first.
+     *
+     * @param handler receives each record in journal order
+     * @throws IOException if a segment or the active file could not be read
+     */
+    public void read(RecordHandler handler) throws IOException {
+        readSegments(Long.MIN_VALUE, handler, null);
+    }
+
+    /**
+     * Reads the records of every segment that has a record at or after {@code since}, and
+     * of the active file. Compressed segments that end before {@code since} are not opened;
+     * their totals per item are passed to {@code older} instead, so the two handlers between
+     * them cover every record exactly once.
+     *
+     * @param since   oldest time, in epoch milliseconds, that must be read record by record
+     * @param handler receives each record that is read, in journal order
+     * @param older   receives the per-item totals of the segments that are skipped
+     * @throws IOException if a segment or the active file could not be read
+     */
+    public void readRecent(long since, RecordHandler handler, TotalsHandler older) throws IOException {
+        readSegments(since, handler, older);
+    }
+
+    private void readSegments(long since, RecordHandler handler, TotalsHandler older) throws IOException {
+        segmentLock.readLock().lock();
+        try {
+            TreeMap<Integer, Segment> compressed = index();
+            int lastId = 0;
+            for (int number : sealedSegments(compressed)) {
+                Segment segment = compressed.get(number);
+                if (segment == null) {
+                    lastId = readFile(segmentFile(number), lastId, handler);
+                } else if (older != null && segment.maxTimestamp < since) {
+                    segment.totals.forEach((itemName, totals) ->
+                            older.totals(itemName, (int) totals[0], totals[1], totals[2]));
+                    lastId = segment.lastId;
+                } else {
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                            new GZIPInputStream(Files.newInputStream(compressedFile(number).toPath())),
+                            StandardCharsets.UTF_8))) {
+                        lastId = readLines(in, lastId, handler);
+                    }
+                }
+            }
+            readFile(file, lastId, handler);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the records with ids from {@code fromId} to {@code toId} inclusive. Only the
+     * compressed blocks whose id range overlaps are decompressed.
+     */
+    public void readIds(int fromId, int toId, RecordHandler handler) throws IOException {
+        readRange(fromId, toId, Long.MIN_VALUE, Long.MAX_VALUE, handler);
+    }
+
+    /**
+     * Reads the records saved from {@code from} to {@code to} inclusive, in epoch
+     * milliseconds. Only the compressed blocks whose time range overlaps are decompressed.
+     */
+    public void readBetween(long from, long to, RecordHandler handler) throws IOException {
+        readRange(Integer.MIN_VALUE, Integer.MAX_VALUE, from, to, handler);
+    }
+
+    private void readRange(int fromId, int toId, long from, long to, RecordHandler handler) throws IOException {
+        RecordHandler inRange = (id, itemName, quantity, timestamp) -> {
+            if (id >= fromId && id <= toId && timestamp >= from && timestamp <= to) {
+                handler.record(id, itemName, quantity, timestamp);
+            }
+        };
+        segmentLock.readLock().lock();
+        try {
+            TreeMap<Integer, Segment> compressed = index();
+            int lastId = 0;
+            for (int number : sealedSegments(compressed)) {
+                Segment segment = compressed.get(number);
+                if (segment == null) {
+                    lastId = readFile(segmentFile(number), lastId, inRange);
+                    continue;
+                }
+                lastId = segment.lastId;
+                if (!segment.overlaps(fromId, toId, from, to)) {
+                    continue;
+                }
+                try (RandomAccessFile in = new RandomAccessFile(compressedFile(number), "r")) {
+                    for (Block block : segment.blocks) {
+                        if (block.overlaps(fromId, toId, from, to)) {
+                            byte[] bytes = new byte[block.length];
+                            in.seek(block.offset);
+                            in.readFully(bytes);
+                            readLines(new BufferedReader(new InputStreamReader(
+                                    new GZIPInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8)),
+                                    block.firstId - 1, inRange);
+                        }
+                    }
+                }
+            }
+            readFile(file, lastId, inRange);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The id of the last record, looking back through the segments if the active file has
+     * none yet.
+     *
+     * @return the last id, or 0 if the journal is empty
+     * @throws IOException if the file could not be read
+     */
+    public int lastId() throws IOException {
+        int last = lastId(file);
+        if (last > 0) {
+            return last;
+        }
+        segmentLock.readLock().lock();
+        try {
+            TreeMap<Integer, Segment> compressed = index();
+            List<Integer> sealed = sealedSegments(compressed);
+            Collections.reverse(sealed);
+            for (int number : sealed) {
+                Segment segment = compressed.get(number);
+                last = segment != null ? segment.lastId : lastId(segmentFile(number));
+                if (last > 0) {
+                    return last;
+                }
+            }
+            return 0;
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Bytes taken on disk by the active file, the segments and the index.
+     */
+    public long sizeOnDisk() {
+        segmentLock.readLock().lock();
+        try {
+            long size = file.length() + indexFile.length();
+            TreeMap<Integer, Segment> compressed = index;
+            for (int number : sealedSegments(compressed == null ? new TreeMap<>() : compressed)) {
+                size += segmentFile(number).length() + compressedFile(number).length();
+            }
+            return size;
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    private File segmentFile(int number) {
+        return new File(file.getParentFile(), String.format("%s.%06d", file.getName(), number));
+    }
+
+    private File compressedFile(int number) {
+        return new File(segmentFile(number).getPath() + ".gz");
+    }
+
+    /**
+     * Numbers of the sealed segments that are not compressed yet, in order.
+     */
+    private List<Integer> plainSegments() {
+        ArrayList<Integer> numbers = new ArrayList<>();
+        String[] names = file.getParentFile().list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = segmentName.matcher(name);
+                if (matcher.matches() && matcher.group(2) == null) {
+                    numbers.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Numbers of every sealed segment, compressed or not, in order.
+     */
+    private List<Integer> sealedSegments(TreeMap<Integer, Segment> compressed) {
+        ArrayList<Integer> numbers = new ArrayList<>(compressed.keySet());
+        for (int number : plainSegments()) {
+            if (!compressed.containsKey(number)) {
+                numbers.add(number);
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Id of the last record of the compressed segment before {@code number}, so lines of the
+     * old format without an id carry on from it.
+     */
+    private int lastIdBefore(int number) throws IOException {
+        Map.Entry<Integer, Segment> before = index().lowerEntry(number);
+        return before == null ? 0 : before.getValue().lastId;
+    }
+
+    /**
+     * The compressed segments, read from the index file the first time they are needed.
+     */
+    private TreeMap<Integer, Segment> index() throws IOException {
+        TreeMap<Integer, Segment> segments = index;
+        if (segments == null) {
+            synchronized (indexFile) {
+                if (index == null) {
+                    index = readIndex();
+                }
+                segments = index;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Index file format, one entry per line:
+     * <pre>
+     * block,segment,offset,length,records,firstId,lastId,minTimestamp,maxTimestamp
+     * total,segment,itemName,count,quantity,lastTimestamp
+     * </pre>
+     */
+    private TreeMap<Integer, Segment> readIndex() throws IOException {
+        TreeMap<Integer, Segment> segments = new TreeMap<>();
+        if (!indexFile.exists()) {
+            return segments;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(indexFile, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(",");
+                Segment segment = segments.computeIfAbsent(Integer.parseInt(parts[1]), Segment::new);
+                if (parts[0].equals("block")) {
+                    Block block = new Block();
+                    block.offset = Long.parseLong(parts[2]);
+                    block.length = Integer.parseInt(parts[3]);
+                    block.records = Integer.parseInt(parts[4]);
+                    block.firstId = Integer.parseInt(parts[5]);
+                    block.lastId = Integer.parseInt(parts[6]);
+                    block.minTimestamp = Long.parseLong(parts[7]);
+                    block.maxTimestamp = Long.parseLong(parts[8]);
+                    segment.blocks.add(block);
+                    segment.include(block);
+                } else if (parts[0].equals("total")) {
+                    segment.totals.put(parts[2], new long[] {Long.parseLong(parts[3]),
+                            Long.parseLong(parts[4]), Long.parseLong(parts[5])});
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged index " + indexFile.getName(), e);
+        }
+        return segments;
+    }
+
+    /**
+     * Replaces the index file in one rename, so it is never seen half written.
+     */
+    private void writeIndex(TreeMap<Integer, Segment> segments) throws IOException {
+        StringBuilder text = new StringBuilder();
+        String newline = System.lineSeparator();
+        for (Segment segment : segments.values()) {
+            for (Block block : segment.blocks) {
+                text.append("block,").append(segment.number).append(',').append(block.offset).append(',')
+                        .append(block.length).append(',').append(block.records).append(',')
+                        .append(block.firstId).append(',').append(block.lastId).append(',')
+                        .append(block.minTimestamp).append(',').append(block.maxTimestamp).append(newline);
+            }
+            segment.totals.forEach((itemName, totals) -> text.append("total,").append(segment.number)
+                    .append(',').append(itemName).append(',').append(totals[0]).append(',')
+                    .append(totals[1]).append(',').append(totals[2]).append(newline));
+        }
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Range of ids and timestamps covered by a block or a segment.
+     */
+    private static class Range {
+        int records;
+        int firstId = Integer.MAX_VALUE;
+        int lastId = Integer.MIN_VALUE;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+
+        void add(int id, long timestamp) {
+            records++;
+            firstId = Math.min(firstId, id);
+            lastId = Math.max(lastId, id);
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+
+        void include(Range other) {
+            records += other.records;
+            firstId = Math.min(firstId, other.firstId);
+            lastId = Math.max(lastId, other.lastId);
+            minTimestamp = Math.min(minTimestamp, other.minTimestamp);
+            maxTimestamp = Math.max(maxTimestamp, other.maxTimestamp);
+        }
+
+        boolean overlaps(int fromId, int toId, long from, long to) {
+            return firstId <= toId && lastId >= fromId && minTimestamp <= to && maxTimestamp >= from;
+        }
+    }
+
+    /**
+     * One gzip member of a compressed segment.
+     */
+    private static class Block extends Range {
+        long offset;
+        int length;
+    }
+
+    /**
+     * A compressed segment: its blocks and the totals per item, in first-seen order.
+     */
+    private static class Segment extends Range {
+        final int number;
+        final ArrayList<Block> blocks = new ArrayList<>();
+        final LinkedHashMap<String, long[]> totals = new LinkedHashMap<>(); //count, quantity, last time
+        Block open = new Block(); //block being filled while compressing
+
+        Segment(int number) {
+            this.number = number;
+        }
+
+        void add(int id, String itemName, int quantity, long timestamp) {
+            open.add(id, timestamp);
+            long[] item = totals.computeIfAbsent(itemName, name -> new long[3]);
+            item[0]++;
+            item[1] += quantity;
+            item[2] = Math.max(item[2], timestamp);
+        }
+
+        void closeBlock(long offset, int length) {
+            open.offset = offset;
+            open.length = length;
+            blocks.add(open);
+            include(open);
+            open = new Block();
+        }
+    }
+
+    /**
+     * Finds the highest id in a journal without reading the whole file.
+     * Only the last 64 KB are read: ids are given out in order but batches saved at the same
+     * time may reach the file in a different order, so the highest of them is taken rather
+     * than the last. A last line without its line break was torn by a crash and is skipped.
+     * Files from older versions whose lines have no id are counted with a full read.
+     *
+     * @param file the journal file
+     * @return the last id, or 0 if the journal is empty or missing
+     * @throws IOException if the file could not be read
+     */
+    public static int lastId(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            int tailSize = (int) Math.min(length, 64 * 1024);
+            byte[] tail = new byte[tailSize];
+            in.seek(length - tailSize);
+            in.readFully(tail);
+            String text = new String(tail, StandardCharsets.UTF_8);
+            String[] lines = text.substring(0, text.lastIndexOf('\n') + 1).split("\\R");
+            //first line may be cut off part way, so skip it unless the tail is the whole file
+            int first = tailSize == length ? 0 : 1;
+            int highest = 0;
+            for (int i = first; i < lines.length; i++) {
+                String[] parts = lines[i].split(",");
+                if (parts.length == 3 || parts.length == 4) {
+                    try {
+                        highest = Math.max(highest, Integer.parseInt(parts[0]));
+                    } catch (NumberFormatException e) {
+                        //damaged line, keep looking
+                    }
+                }
+            }
+            if (highest > 0) {
+                return highest;
+            }
+        }
+        //no id found near the end, fall back to reading every record
+        final int[] last = {0};
+        read(file, (id, itemName, quantity, timestamp) -> last[0] = Math.max(last[0], id));
+        return last[0];
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background writer that takes orders, deliveries and manual edits off the Swing event
+ * thread and saves them through the {@code StockService}.
+ *
+ * <p>Windows hand a change to the writer and get a {@code CompletableFuture} back at once;
+ * the logging and fsyncs happen on the writer thread. The writer takes everything that is
+ * waiting in one go and saves it as one batch, so:
+ * <ul>
+ *   <li>consecutive orders (or deliveries, or basket orders) share one forced write to
+ *       {@code inventory.wal} and one to their journal,</li>
+ *   <li>several edits to the same item only save the last quantity,</li>
+ *   <li>the more changes arrive while a write is in progress, the bigger the next batch,
+ *       so disk work grows with elapsed time rather than with the number of changes.</li>
+ * </ul>
+ * The snapshot itself is already only written by checkpoints, which save the latest state
+ * of each changed item.
+ *
+ * <p>The queue is bounded. If the disk falls behind and the queue fills up, submitting
+ * waits for room, which slows the callers down instead of letting memory grow. On exit
+ * everything still queued is saved before the program stops.
+ */
+public class PersistenceWriter {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+
+    //kinds of change
+    private static final int ORDER = 1;
+    private static final int DELIVERY = 2;
+    private static final int EDIT = 3;
+    private static final int BASKET = 4;
+
+    /**
+     * One change waiting to be saved.
+     */
+    private static class Change {
+        final int kind;
+        final int itemId;
+        final int quantity;
+        final int[] itemIds; //lines of a basket
+        final int[] quantities;
+        final CompletableFuture<Object> done = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+
+        Change(int kind, int itemId, int quantity) {
+            this.kind = kind;
+            this.itemId = itemId;
+            this.quantity = quantity;
+            this.itemIds = null;
+            this.quantities = null;
+        }
+
+        Change(int[] itemIds, int[] quantities) {
+            this.kind = BASKET;
+            this.itemId = -1;
+            this.quantity = 0;
+            this.itemIds = itemIds;
+            this.quantities = quantities;
+        }
+    }
+
+    //time from queueing a change to it being on disk
+    private static final Metrics.Timer orderSaves = Metrics.timer("save.order");
+    private static final Metrics.Timer deliverySaves = Metrics.timer("save.delivery");
+    private static final Metrics.Timer editSaves = Metrics.timer("save.edit");
+    private static final Metrics.Timer basketSaves = Metrics.timer("save.basket");
+
+    private final StockService service;
+    private final BlockingQueue<Change> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile boolean stopping;
+
+    public PersistenceWriter(StockService service) {
+        this.service = service;
+        writer = new Thread(this::writeLoop, "persistence-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Metrics.gauge("save.queued", queue::size);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "persistence-flush"));
+    }
+
+    /**
+     * Queues an order.
+     *
+     * @return completes with the saved order, or with null if there was not enough stock
+     * @throws IllegalArgumentException if there is no item with that name
+     */
+    public CompletableFuture<Order> placeOrder(String itemName, int quantity) {
+        return submit(new Change(ORDER, itemId(itemName), quantity)).thenApply(saved -> (Order) saved);
+    }
+
+    /**
+     * Queues a basket order, placed all or nothing.
+     *
+     * @return completes with the order of each line, or with null if any line was short of stock
+     * @throws IllegalArgumentException if an item is unknown or a quantity is not positive
+     */
+    public CompletableFuture<List<Order>> placeBasket(String[] itemNames, int[] quantities) {
+        if (itemNames.length != quantities.length) {
+            throw new IllegalArgumentException("Each line needs an item and a quantity");
+        }
+        int[] itemIds = new int[itemNames.length];
+        for (int i = 0; i < itemNames.length; i++) {
+            itemIds[i] = itemId(itemNames[i]);
+            if (quantities[i] <= 0) {
+                throw new IllegalArgumentException("Quantity must be positive: " + itemNames[i]);
+            }
+        }
+        return submit(new Change(itemIds, quantities.clone()))
+                .thenApply(saved -> saved == null ? null : Arrays.asList((Order[]) saved));
+    }
+
+    /**
+     * Queues a delivery.
+     *
+     * @return completes with the saved delivery
+     * @throws IllegalArgumentException if there is no item with that name
+     */
+    public CompletableFuture<Delivery> receiveDelivery(String itemName, int quantity) {
+        return submit(new Change(DELIVERY, itemId(itemName), quantity)).thenApply(saved -> (Delivery) saved);
+    }
+
+    /**
+     * Queues a manual edit of an item's quantity.
+     */
+    public CompletableFuture<Object> setQuantity(int itemId, int quantity) {
+        return submit(new Change(EDIT, itemId, quantity));
+    }
+
+    /**
+     * Waits until everything queued so far has been saved.
+     */
+    public void flush() {
+        barrier().join();
+    }
+
+    /**
+     * A change that saves nothing and completes once everything queued before it is saved.
+     */
+    private CompletableFuture<Object> barrier() {
+        return submit(new Change(0, -1, 0));
+    }
+
+    private CompletableFuture<Object> submit(Change change) {
+        if (stopping) {
+            change.done.completeExceptionally(new IOException("Shutting down, change not saved"));
+            return change.done;
+        }
+        try {
+            queue.put(change); //blocks while the queue is full
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            change.done.completeExceptionally(e);
+        }
+        return change.done;
+    }
+
+    private void writeLoop() {
+        ArrayList<Change> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            save(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Saves a batch, one run of same-kind changes at a time so changes keep their order.
+     */
+    private void save(List<Change> batch) {
+        int start = 0;
+        while (start < batch.size()) {
+            int kind = batch.get(start).kind;
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).kind == kind) {
+                end++;
+            }
+            List<Change> run = batch.subList(start, end);
+            try {
+                if (kind == ORDER) {
+                    saveOrders(run);
+                } else if (kind == DELIVERY) {
+                    saveDeliveries(run);
+                } else if (kind == EDIT) {
+                    saveEdits(run);
+                } else if (kind == BASKET) {
+                    saveBaskets(run);
+                } else {
+                    for (Change change : run) {
+                        change.done.complete(null);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Metrics.error("save", e);
+                for (Change change : run) {
+                    change.done.completeExceptionally(e);
+                }
+            }
+            Metrics.Timer timer = kind == ORDER ? orderSaves : kind == DELIVERY ? deliverySaves
+                    : kind == EDIT ? editSaves : kind == BASKET ? basketSaves : null;
+            if (timer != null) {
+                long now = System.nanoTime();
+                for (Change change : run) {
+                    timer.record(now - change.queuedAt);
+                }
+            }
+            start = end;
+        }
+    }
+
+    private void saveOrders(List<Change> run) throws IOException {
+        int count = run.size();
+        int[] itemIds = new int[count];
+        int[] quantities = new int[count];
+        boolean[] rejected = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            itemIds[i] = run.get(i).itemId;
+            quantities[i] = run.get(i).quantity;
+        }
+        List<Order> orders = service.placeOrders(itemIds, quantities, count, rejected);
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            run.get(i).done.complete(rejected[i] ? null : orders.get(next++));
+        }
+    }
+
+    private void saveDeliveries(List<Change> run) throws IOException {
+        int count = run.size();
+        int[] itemIds = new int[count];
+        int[] quantities = new int[count];
+        boolean[] rejected = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            itemIds[i] = run.get(i).itemId;
+            quantities[i] = run.get(i).quantity;
+        }
+        List<Delivery> deliveries = service.receiveDeliveries(itemIds, quantities, count, rejected);
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            if (rejected[i]) {
+                String itemName = service.getStore().getName(itemIds[i]);
+                run.get(i).done.completeExceptionally(new IllegalArgumentException("Stock of " + itemName + " would overflow"));
+            } else {
+                run.get(i).done.complete(deliveries.get(next++));
+            }
+        }
+    }
+
+    private void saveBaskets(List<Change> run) throws IOException {
+        ArrayList<int[]> itemIds = new ArrayList<>(run.size());
+        ArrayList<int[]> quantities = new ArrayList<>(run.size());
+        for (Change change : run) {
+            itemIds.add(change.itemIds);
+            quantities.add(change.quantities);
+        }
+        List<List<Order>> baskets = service.placeBaskets(itemIds, quantities);
+        for (int i = 0; i < run.size(); i++) {
+            List<Order> basket = baskets.get(i);
+            run.get(i).done.complete(basket == null ? null : basket.toArray(new Order[0]));
+        }
+    }
+
+    private void saveEdits(List<Change> run) throws IOException {
+        for (int i = 0; i < run.size(); i++) {
+            Change change = run.get(i);
+            boolean overwritten = false;
+            for (int j = i + 1; j < run.size() && !overwritten; j++) {
+                overwritten = run.get(j).itemId == change.itemId;
+            }
+            if (!overwritten) { //only the last edit of each item is saved
+                service.setQuantity(change.itemId, change.quantity);
+            }
+        }
+        for (Change change : run) {
+            change.done.complete(null);
+        }
+    }
+
+    /**
+     * Stops taking new changes and saves everything already queued, waiting at most
+     * {@link #SHUTDOWN_WAIT_SECONDS}. Runs from the shutdown hook.
+     */
+    public void shutdown() {
+        CompletableFuture<Object> flushed = barrier();
+        stopping = true;
+        try {
+            flushed.get(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            Metrics.error("save", e); //a timeout means changes still queued were not saved
+        }
+    }
+
+    private int itemId(String itemName) {
+        int id = service.getStore().indexOf(itemName);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown item: " + itemName);
+        }
+        return id;
+    }
+}
@@ -1,51 +1,84 @@
 import org.knowm.xchart.*;
 import java.util.*;
 import javax.swing.*;
+import javax.swing.Timer;
 import java.awt.*;
+import java.awt.event.*;
 
 /**
- * The {@code PieChart} class is responsible for creating and displaying a pie chart
- * based on a set of labeled data values. This class handles the calculation of angles,
- * rendering of pie slices, and display features such as labels and a legend.
+ * The {@code PieChartWindow} class shows the inventory as a pie chart that stays live.
+ *
+ * <p>There is only ever one chart window. It listens to the {@code InventoryStore} and,
+ * when stock changes, updates the changed slices in place with {@code updatePieSeries}
+ * instead of building a new chart. Changes are collected and applied by a Swing timer at
+ * most once per {@link #FRAME_MILLIS}, so a burst of orders (e.g. a bulk import) costs one
+ * repaint per frame rather than one per order.
+ *
+ * <p>Closing the window only hides it and stops listening; showing it again reuses it.
 */
+public class PieChartWindow implements InventoryStore.Listener {
 
+    /**
+     * Shortest time between two repaints of the chart.
+     */
+    private static final int FRAME_MILLIS = 40;
+
+    private static PieChartWindow window;
 
-public class PieChartWindow {
+    private final InventoryStore store;
+    private final PieChart chart;
+    private final XChartPanel<PieChart> chartPanel;
+    private final JFrame chartFrame;
+    private final Timer repaintTimer;
+
+    //items changed since the last repaint, guarded by itself
+    private final BitSet changed = new BitSet();
+    private boolean added;
 
     /**
-     * Displays the pie chart using data from the inventory list.
+     * Shows the chart window, creating it the first time.
+     * Must be called on the event dispatch thread.
      *
-     * @param inventoryList An arraylist containing all items in the inventory.
+     * @param store The inventory to chart.
      */
-    public static void showChart(ArrayList<InventoryItem> inventoryList) {
-        PieChart chart = new PieChartBuilder()
+    public static void showChart(InventoryStore store) {
+        if (window == null || window.store != store) {
+            window = new PieChartWindow(store);
+        }
+        window.open();
+    }
+
+    private PieChartWindow(InventoryStore store) {
+        this.store = store;
+        chart = new PieChartBuilder()
                 .width(400)
                 .height(400)
                 .title("Inventory Pie Chart")
                 .build();
 
-        for (InventoryItem item : inventoryList) {
-            chart.addSeries(item.getName(), item.getQuantity());
-        }
-
         // Chart panel
-        XChartPanel<PieChart> chartPanel = new XChartPanel<>(chart);
+        chartPanel = new XChartPanel<>(chart);
 
         // Create a frame manually so we can fully control layout
-        JFrame chartFrame = new JFrame("Inventory Chart");
-        chartFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        chartFrame = new JFrame("Inventory Chart");
+        chartFrame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
         chartFrame.setLayout(new BorderLayout());
+        chartFrame.addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                close();
+            }
+        });
 
         // Close button
         JButton closeButton = new JButton("Close");
         // make it red with white text
-        closeButton.setBackground(new Color(220, 53, 69)); 
+        closeButton.setBackground(new Color(220, 53, 69));
         closeButton.setForeground(Color.WHITE);
 
         closeButton.setFocusPainted(false);
         closeButton.setFont(new Font("Arial", Font.BOLD, 12));
-        closeButton.addActionListener(e -> chartFrame.dispose()); 
-        //^ closes the frame not entire gui program
+        closeButton.addActionListener(e -> close());
+        //^ hides the frame not entire gui program
 
         // Bottom panel for the button
         JPanel buttonPanel = new JPanel();
@@ -54,8 +87,105 @@ public class PieChartWindow {
         chartFrame.add(chartPanel, BorderLayout.CENTER);//chart in "middle"
         chartFrame.add(buttonPanel, BorderLayout.SOUTH);//button panel at "bottom"
 
+        //one-shot timer, started by the first change after a repaint
+        Metrics.Timer edtTime = Metrics.timer("edt.listeners");
+        repaintTimer = new Timer(FRAME_MILLIS, e -> edtTime.time(this::applyChanges));
+        repaintTimer.setRepeats(false);
+
         chartFrame.pack();
         chartFrame.setLocationRelativeTo(null); //spawn frame in middle of screen
-        chartFrame.setVisible(true);
+    }
+
+    private void open() {
+        if (!chartFrame.isVisible()) {
+            loadSeries(); //catch up on everything that changed while hidden
+            store.addListener(this);
+            chartFrame.setVisible(true);
+        }
+        chartFrame.toFront();
+    }
+
+    private void close() {
+        store.removeListener(this);
+        repaintTimer.stop();
+        //drop changes the stopped timer will never apply, or the next change after reopening
+        //would not count as the first and would never start the timer
+        synchronized (changed) {
+            changed.clear();
+            added = false;
+        }
+        chartFrame.setVisible(false);
+    }
+
+    /**
+     * Adds a slice for every item not yet on the chart and updates the others.
+     */
+    private void loadSeries() {
+        Map<String, PieSeries> series = chart.getSeriesMap();
+        int size = store.size();
+        for (int id = 0; id < size; id++) {
+            if (!store.contains(id)) {
+                continue;
+            }
+            String name = store.getName(id);
+            if (series.containsKey(name)) {
+                chart.updatePieSeries(name, store.getQuantity(id));
+            } else {
+                chart.addSeries(name, store.getQuantity(id));
+            }
+        }
+        chartPanel.repaint();
+    }
+
+    /**
+     * Updates the slices of the items changed since the last repaint, then repaints once.
+     */
+    private void applyChanges() {
+        BitSet ids;
+        boolean reload;
+        synchronized (changed) {
+            ids = (BitSet) changed.clone();
+            changed.clear();
+            reload = added;
+            added = false;
+        }
+        if (reload) {
+            loadSeries();
+            return;
+        }
+        Map<String, PieSeries> series = chart.getSeriesMap();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            String name = store.getName(id);
+            if (series.containsKey(name)) {
+                chart.updatePieSeries(name, store.getQuantity(id));
+            }
+        }
+        chartPanel.repaint();
+    }
+
+    @Override
+    public void quantityChanged(int id, int oldQuantity, int newQuantity) {
+        markChanged(id, false);
+    }
+
+    @Override
+    public void itemAdded(int id) {
+        markChanged(id, true);
+    }
+
+    /**
+     * Called on whichever thread changed the stock; only records the change.
+     */
+    private void markChanged(int id, boolean isNew) {
+        boolean first;
+        synchronized (changed) {
+            first = changed.isEmpty() && !added;
+            changed.set(id);
+            added |= isNew;
+        }
+        if (first) {
+            //start the timer on the EDT, later changes just join this repaint
+            SwingUtilities.invokeLater(repaintTimer::restart);
+        }
     }
 }
@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Secondary index of the inventory ordered by quantity, kept up to date as stock changes.
+ *
+ * <p>Each item is one key in a concurrent skip list, the quantity in the high 32 bits and
+ * the item id in the low 32 bits, so keys sort by quantity and then by id. A stock change
+ * moves one key (O(log n)), and "the k lowest items" or "items with between a and b in
+ * stock" walk only the keys they return: O(log n + k). Nothing about the inventory itself
+ * is reordered.
+ *
+ * <p>The index listens to the {@code InventoryStore}. Changes to the same item can be
+ * reported out of order by different threads, so on each change the index reads the item's
+ * current quantity and moves its key from wherever the index last put it.
+ */
+public class QuantityIndex implements InventoryStore.Listener {
+
+    private static final int STRIPES = 64;
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int NOT_INDEXED = Integer.MIN_VALUE;
+
+    private final InventoryStore store;
+    private final ConcurrentSkipListSet<Long> keys = new ConcurrentSkipListSet<>();
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Quantity each item's key was filed under, so a change can find the old key to remove;
+     * {@code NOT_INDEXED} until the item is first indexed. {@link #itemAdded} only appends
+     * pages to the directory and keeps the existing ones, so a move made under a stripe lock
+     * while the directory grows is still in the page the next move reads. Entries are
+     * guarded by the item's stripe lock.
+     */
+    private volatile int[][] indexed = new int[0][];
+
+    public QuantityIndex(InventoryStore store) {
+        this.store = store;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        store.addListener(this);
+        for (int id = 0; id < store.size(); id++) {
+            if (store.contains(id)) {
+                itemAdded(id);
+            }
+        }
+    }
+
+    /**
+     * Stops listening to the store.
+     */
+    public void detach() {
+        store.removeListener(this);
+    }
+
+    private static long key(int quantity, int id) {
+        return ((long) quantity << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    private static int idOf(long key) {
+        return (int) key;
+    }
+
+    @Override
+    public void itemAdded(int id) {
+        synchronized (this) {
+            int page = id >> PAGE_BITS;
+            if (page >= indexed.length) {
+                int[][] grown = Arrays.copyOf(indexed, page + 1);
+                for (int p = indexed.length; p < grown.length; p++) {
+                    grown[p] = new int[PAGE_SIZE];
+                    Arrays.fill(grown[p], NOT_INDEXED);
+                }
+                indexed = grown;
+            }
+        }
+        update(id);
+    }
+
+    @Override
+    public void quantityChanged(int id, int oldQuantity, int newQuantity) {
+        update(id);
+    }
+
+    private void update(int id) {
+        synchronized (locks[id % STRIPES]) {
+            int[][] pages = indexed;
+            if (id >> PAGE_BITS >= pages.length) {
+                return; //not added yet, itemAdded will index it
+            }
+            int[] page = pages[id >> PAGE_BITS];
+            int slot = id & (PAGE_SIZE - 1);
+            int quantity = store.getQuantity(id);
+            int old = page[slot];
+            if (old == quantity) {
+                return;
+            }
+            if (old != NOT_INDEXED) {
+                keys.remove(key(old, id));
+            }
+            keys.add(key(quantity, id));
+            page[slot] = quantity;
+        }
+    }
+
+    /**
+     * Ids of the {@code k} items with the least stock, lowest first.
+     */
+    public int[] lowest(int k) {
+        return take(keys.iterator(), k);
+    }
+
+    /**
+     * Ids of every item, lowest stock first. One walk of the index, no sorting.
+     */
+    public int[] ascending() {
+        return take(keys.iterator(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Ids of the {@code k} items with the most stock, highest first.
+     */
+    public int[] highest(int k) {
+        return take(keys.descendingIterator(), k);
+    }
+
+    /**
+     * Ids of the items with between {@code min} and {@code max} in stock (both inclusive), lowest first.
+     */
+    public int[] between(int min, int max) {
+        if (min > max) {
+            return new int[0];
+        }
+        NavigableSet<Long> range = keys.subSet(key(min, 0), true, key(max, -1), true);
+        return take(range.iterator(), Integer.MAX_VALUE);
+    }
+
+    private static int[] take(Iterator<Long> it, int k) {
+        int[] ids = new int[Math.min(k, 16)];
+        int n = 0;
+        while (n < k && it.hasNext()) {
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, (int) Math.min((long) ids.length * 2, k));
+            }
+            ids[n++] = idOf(it.next());
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+}
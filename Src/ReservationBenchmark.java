@@ -0,0 +1,138 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark for {@link InventoryStore#tryRemove(int, int)} and
+ * {@link InventoryStore#tryRemoveAll(int[], int[])}.
+ *
+ * <p>Runs the same workload with 1, 2, 4 ... up to the number of cores and prints the
+ * reservations per second for each thread count, once with every thread fighting over a
+ * few items and once spread over a larger catalog. A final run starts with limited stock
+ * and checks that no units were oversold.
+ *
+ * <p>Usage:
+ * <pre>
+ * java ReservationBenchmark [items] [secondsPerRun]
+ * </pre>
+ */
+public class ReservationBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("cores=" + cores + " items=" + items + " seconds/run=" + seconds);
+        System.out.printf("%-10s %8s %16s %16s%n", "workload", "threads", "ops/s", "ops/s/thread");
+        for (int hotItems : new int[] {7, items}) {
+            String workload = hotItems == 7 ? "hot-7" : "spread";
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                report(workload, threads, run(items, hotItems, threads, seconds, false));
+            }
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                report(workload + "-bsk", threads, run(items, hotItems, threads, seconds, true));
+            }
+        }
+        checkNoOversell(Math.max(2, cores));
+    }
+
+    private static void report(String workload, int threads, double opsPerSecond) {
+        System.out.printf("%-10s %8d %16.0f %16.0f%n", workload, threads, opsPerSecond, opsPerSecond / threads);
+    }
+
+    /**
+     * Runs one timed measurement and returns successful reservations per second.
+     */
+    private static double run(int items, int hotItems, int threads, double seconds, boolean baskets)
+            throws InterruptedException {
+        InventoryStore store = filledStore(items, Integer.MAX_VALUE / 2);
+        LongAdder done = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long durationNanos = (long) (seconds * 1_000_000_000L);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int[] ids = new int[3];
+                int[] amounts = {1, 1, 1};
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long end = System.nanoTime() + durationNanos;
+                while ((count & 1023) != 0 || System.nanoTime() < end) {
+                    if (baskets) {
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = random.nextInt(hotItems);
+                        }
+                        if (store.tryRemoveAll(ids, amounts) < 0) {
+                            count++;
+                        }
+                    } else if (store.tryRemove(random.nextInt(hotItems), 1)) {
+                        count++;
+                    }
+                }
+                done.add(count);
+            });
+            workers[t].start();
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return done.sum() / ((System.nanoTime() - began) / 1e9);
+    }
+
+    /**
+     * Lets many threads race for a small amount of stock and checks the totals add up.
+     */
+    private static void checkNoOversell(int threads) throws InterruptedException {
+        int stock = 100_000;
+        InventoryStore store = filledStore(7, stock);
+        LongAdder sold = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int misses = 0;
+                while (misses < 10_000) {
+                    int amount = 1 + random.nextInt(5);
+                    if (store.tryRemove(random.nextInt(7), amount)) {
+                        sold.add(amount);
+                    } else {
+                        misses++;
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long left = 0;
+        for (int id = 0; id < 7; id++) {
+            int quantity = store.getQuantity(id);
+            if (quantity < 0) {
+                throw new IllegalStateException("Item " + id + " oversold: " + quantity);
+            }
+            left += quantity;
+        }
+        if (left + sold.sum() != 7L * stock) {
+            throw new IllegalStateException("Stock does not add up: sold " + sold.sum() + ", left " + left);
+        }
+        System.out.println("oversell check passed: sold " + sold.sum() + ", left " + left);
+    }
+
+    private static InventoryStore filledStore(int items, int quantity) {
+        InventoryStore store = new InventoryStore();
+        for (int id = 0; id < items; id++) {
+            store.add(id, "Item" + id, quantity);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,245 @@
+import java.util.Arrays;
+
+/**
+ * Rolling per-item counts of orders or deliveries at minute, hour and day resolution.
+ *
+ * <p>Each resolution is a ring of fixed-size buckets: 60 minutes, 48 hours and 90 days. A
+ * bucket remembers which minute, hour or day it holds, the same one for every item, so
+ * when time moves on it is reset for all items at once and reused. A bucket holds an
+ * {@code int} of units and of records per item and is only allocated once something is
+ * recorded in it, so a catalogue of 100,000 items costs at most about 160 MB rather than
+ * three {@code long}s per item and bucket. Recording a sale allocates nothing once the
+ * bucket exists, and a window query adds up at most one ring's buckets, however long the
+ * history is.
+ *
+ * <p>A window is answered from the finest ring that still covers it, so "last 15 minutes"
+ * is exact to the minute and "last 30 days" is exact to the day.
+ */
+public class SalesAnalytics {
+
+    public static final long MINUTE = 60_000L;
+    public static final long HOUR = 60 * MINUTE;
+    public static final long DAY = 24 * HOUR;
+
+    /**
+     * One ring of buckets, each with a column of counters indexed by item.
+     */
+    private static class Ring {
+        final long bucketMillis;
+        final int buckets;
+        final long[] periods; //which minute, hour or day each bucket holds
+        final int[][] units; //units of each item in each bucket, null until the bucket is used
+        final int[][] counts; //orders or deliveries of each item in each bucket
+        int items;
+
+        Ring(long bucketMillis, int buckets, int items) {
+            this.bucketMillis = bucketMillis;
+            this.buckets = buckets;
+            this.items = items;
+            periods = new long[buckets];
+            units = new int[buckets][];
+            counts = new int[buckets][];
+            Arrays.fill(periods, -1);
+        }
+
+        long span() {
+            return bucketMillis * buckets;
+        }
+
+        void grow(int items) {
+            this.items = items;
+            for (int slot = 0; slot < buckets; slot++) {
+                if (units[slot] != null) {
+                    units[slot] = Arrays.copyOf(units[slot], items);
+                    counts[slot] = Arrays.copyOf(counts[slot], items);
+                }
+            }
+        }
+
+        /**
+         * Whether a record at {@code timestamp} is still inside the ring at {@code now}.
+         */
+        boolean holds(long timestamp, long now) {
+            return timestamp / bucketMillis > now / bucketMillis - buckets;
+        }
+
+        void add(int itemId, int quantity, long timestamp) {
+            long period = timestamp / bucketMillis;
+            int slot = (int) (period % buckets);
+            if (periods[slot] != period) {
+                if (periods[slot] > period) {
+                    return; //older than anything the ring still holds
+                }
+                periods[slot] = period;
+                if (units[slot] != null) {
+                    Arrays.fill(units[slot], 0);
+                    Arrays.fill(counts[slot], 0);
+                }
+            }
+            if (units[slot] == null) {
+                units[slot] = new int[items];
+                counts[slot] = new int[items];
+            }
+            //a bucket saturates rather than wrapping round
+            units[slot][itemId] = (int) Math.min(Integer.MAX_VALUE, (long) units[slot][itemId] + quantity);
+            counts[slot][itemId]++;
+        }
+
+        /**
+         * Sums the buckets of an item from period {@code first} to {@code last} inclusive.
+         */
+        long sum(int[][] column, int itemId, long first, long last) {
+            long total = 0;
+            for (int slot = 0; slot < buckets; slot++) {
+                long period = periods[slot];
+                if (period >= first && period <= last && column[slot] != null) {
+                    total += column[slot][itemId];
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Adds the buckets from period {@code first} to {@code last} inclusive into
+         * {@code totals}, one entry per item, reading each bucket's column once.
+         */
+        void sumAll(int[][] column, long first, long last, long[] totals) {
+            int n = Math.min(items, totals.length);
+            for (int slot = 0; slot < buckets; slot++) {
+                long period = periods[slot];
+                if (period >= first && period <= last && column[slot] != null) {
+                    int[] values = column[slot];
+                    for (int itemId = 0; itemId < n; itemId++) {
+                        totals[itemId] += values[itemId];
+                    }
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(periods, -1);
+            Arrays.fill(units, null);
+            Arrays.fill(counts, null);
+        }
+    }
+
+    private final Ring minutes;
+    private final Ring hours;
+    private final Ring days;
+    private int capacity;
+
+    public SalesAnalytics() {
+        capacity = 16;
+        minutes = new Ring(MINUTE, 60, capacity);
+        hours = new Ring(HOUR, 48, capacity);
+        days = new Ring(DAY, 90, capacity);
+    }
+
+    /**
+     * Longest window that can be asked for.
+     */
+    public long maxWindow() {
+        return days.span();
+    }
+
+    /**
+     * Adds one order or delivery. Records older than the longest window are ignored.
+     */
+    public synchronized void record(int itemId, int quantity, long timestamp) {
+        ensureCapacity(itemId);
+        minutes.add(itemId, quantity, timestamp);
+        hours.add(itemId, quantity, timestamp);
+        days.add(itemId, quantity, timestamp);
+    }
+
+    private void ensureCapacity(int itemId) {
+        if (itemId >= capacity) {
+            capacity = Math.max(itemId + 1, capacity * 2);
+            minutes.grow(capacity);
+            hours.grow(capacity);
+            days.grow(capacity);
+        }
+    }
+
+    /**
+     * Clears every ring and fills them again from a history. Each ring only takes the records
+     * inside its own span, so replaying months of history resets each bucket at most once.
+     * Used once the history has loaded.
+     */
+    public synchronized void rebuild(HistoryStore history, InventoryStore store, long now) {
+        minutes.clear();
+        hours.clear();
+        days.clear();
+        int[] itemIds = new int[history.itemCount()];
+        for (int code = 0; code < itemIds.length; code++) {
+            itemIds[code] = store.indexOf(history.nameOf(code));
+        }
+        history.forEach((id, itemCode, quantity, timestamp) -> {
+            int itemId = itemIds[itemCode];
+            if (itemId < 0 || !days.holds(timestamp, now)) {
+                return;
+            }
+            ensureCapacity(itemId);
+            days.add(itemId, quantity, timestamp);
+            if (hours.holds(timestamp, now)) {
+                hours.add(itemId, quantity, timestamp);
+            }
+            if (minutes.holds(timestamp, now)) {
+                minutes.add(itemId, quantity, timestamp);
+            }
+        });
+    }
+
+    /**
+     * Units of an item in the last {@code window} milliseconds before {@code now}.
+     */
+    public synchronized long unitsInLast(int itemId, long window, long now) {
+        if (itemId >= capacity) {
+            return 0;
+        }
+        Ring ring = ringFor(window);
+        return ring.sum(ring.units, itemId, firstPeriod(ring, window, now), now / ring.bucketMillis);
+    }
+
+    /**
+     * Units of every item in the last {@code window} milliseconds before {@code now}, added
+     * into {@code totals} by item id. Ids past the end of {@code totals} are left out. One
+     * pass over the ring answers the whole catalogue, where asking {@link #unitsInLast(int,
+     * long, long)} per item would take the lock and walk the ring once per item.
+     */
+    public synchronized void unitsInLast(long window, long now, long[] totals) {
+        Ring ring = ringFor(window);
+        ring.sumAll(ring.units, firstPeriod(ring, window, now), now / ring.bucketMillis, totals);
+    }
+
+    /**
+     * Number of orders or deliveries of an item in the last {@code window} milliseconds before {@code now}.
+     */
+    public synchronized long countInLast(int itemId, long window, long now) {
+        if (itemId >= capacity) {
+            return 0;
+        }
+        Ring ring = ringFor(window);
+        return ring.sum(ring.counts, itemId, firstPeriod(ring, window, now), now / ring.bucketMillis);
+    }
+
+    /**
+     * The finest ring that covers the window.
+     */
+    private Ring ringFor(long window) {
+        if (window <= minutes.span()) {
+            return minutes;
+        } else if (window <= hours.span()) {
+            return hours;
+        } else if (window <= days.span()) {
+            return days;
+        }
+        throw new IllegalArgumentException("Window longer than " + (days.span() / DAY) + " days");
+    }
+
+    private static long firstPeriod(Ring ring, long window, long now) {
+        //whole buckets only, the current partial bucket counts as one
+        long buckets = Math.max(1, (window + ring.bucketMillis - 1) / ring.bucketMillis);
+        return now / ring.bucketMillis - buckets + 1;
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Records how long each phase of startup took so slow launches can be tracked down.
+ * Phases can run on any thread; each one is recorded with its start offset from
+ * launch and its duration, and {@link #report()} gives a breakdown such as:
+ * <pre>
+ * frame shown          start     85 ms  took     85 ms
+ * inventory            start     86 ms  took     12 ms
+ * </pre>
+ * Each duration is also published as a {@code startup.<phase>.ms} gauge in {@link Metrics}.
+ */
+public class StartupTimer {
+
+    private final long launchNanos;
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<long[]> times = new ArrayList<>(); //{start offset, duration}
+
+    /**
+     * Starts the clock, normally as the first thing in {@code main}.
+     */
+    public StartupTimer() {
+        launchNanos = System.nanoTime();
+    }
+
+    /**
+     * Runs a phase and records how long it took.
+     */
+    public void time(String phase, Runnable work) {
+        long start = System.nanoTime();
+        try {
+            work.run();
+        } finally {
+            record(phase, start, System.nanoTime());
+        }
+    }
+
+    /**
+     * Records a point in time measured from launch, e.g. when the window first appears.
+     */
+    public void mark(String phase) {
+        record(phase, launchNanos, System.nanoTime());
+    }
+
+    private synchronized void record(String phase, long start, long end) {
+        names.add(phase);
+        times.add(new long[] {start - launchNanos, end - start});
+        long millis = (end - start) / 1_000_000;
+        Metrics.gauge("startup." + phase.replace(' ', '_') + ".ms", () -> millis);
+    }
+
+    /**
+     * Milliseconds since launch.
+     */
+    public long elapsedMillis() {
+        return (System.nanoTime() - launchNanos) / 1_000_000;
+    }
+
+    /**
+     * Returns the breakdown of all phases recorded so far, in the order they finished.
+     */
+    public synchronized String report() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            long[] time = times.get(i);
+            text.append(String.format("%-20s start %6d ms  took %6d ms%n",
+                    names.get(i), time[0] / 1_000_000, time[1] / 1_000_000));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the breakdown to a file, replacing the report from the previous launch.
+     */
+    public void writeReport(String fileName) {
+        try (PrintWriter out = new PrintWriter(fileName)) {
+            out.print(report());
+        } catch (IOException e) {
+            Metrics.error("startup", e);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stock-level alerting. Works out whether each item is low, normal or over stock when its
+ * quantity changes, rather than every time a table cell is painted.
+ *
+ * <p>Each item has a low and an over threshold and a hysteresis margin. An item becomes
+ * low at or below its low threshold and only stops being low once it rises more than the
+ * margin above it, so stock bouncing around a threshold does not raise alert after alert.
+ * Over stock works the same way the other side.
+ *
+ * <p>The engine keeps the sets of items that are currently low and over stock, and tells
+ * its listeners about every change of status. It listens to the {@code InventoryStore}
+ * itself, so alerts are raised whether or not any window is open.
+ *
+ * <p>Items are guarded by striped locks, so stock changes to different items rarely share
+ * a lock, and listeners are called after the lock is released. Changes of the same item
+ * made at once by different threads may reach listeners out of order; {@link #getStatus}
+ * always has the current status.
+ *
+ * <p>Thresholds are read from a text file with one {@code itemName low over [margin]} line
+ * per item; a line for {@code *} sets the default for every other item. Lines starting
+ * with {@code #} are ignored. Without a file every item uses 5 / 50 with a margin of 2.
+ */
+public class StockAlerts implements InventoryStore.Listener {
+
+    //statuses
+    public static final int NORMAL = 0;
+    public static final int LOW = 1;
+    public static final int OVER = 2;
+
+    public static final int DEFAULT_LOW = 5;
+    public static final int DEFAULT_OVER = 50;
+    public static final int DEFAULT_MARGIN = 2;
+
+    private static final int STRIPES = 64;
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /**
+     * Told about every change of status, on the thread that changed the stock.
+     */
+    public interface AlertListener {
+        void statusChanged(int id, int oldStatus, int newStatus, int quantity);
+    }
+
+    private final InventoryStore store;
+    private final CopyOnWriteArrayList<AlertListener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<Integer> lowItems = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> overItems = ConcurrentHashMap.newKeySet();
+
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Per item id, in pages that are never copied so growing can't lose an update. Entries
+     * are guarded by the item's stripe lock; -1 thresholds mean the default.
+     */
+    private static class Page {
+        final byte[] status = new byte[PAGE_SIZE];
+        final int[] low = new int[PAGE_SIZE];
+        final int[] over = new int[PAGE_SIZE];
+        final int[] margin = new int[PAGE_SIZE];
+
+        Page() {
+            Arrays.fill(low, -1);
+            Arrays.fill(over, -1);
+            Arrays.fill(margin, -1);
+        }
+    }
+
+    private volatile Page[] pages = new Page[0];
+
+    private int defaultLow = DEFAULT_LOW;
+    private int defaultOver = DEFAULT_OVER;
+    private int defaultMargin = DEFAULT_MARGIN;
+
+    /**
+     * Creates the engine, reads the thresholds and starts listening to the store.
+     *
+     * @param thresholds threshold file, may not exist
+     */
+    public StockAlerts(InventoryStore store, File thresholds) {
+        this.store = store;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        if (thresholds.exists()) {
+            loadThresholds(thresholds);
+        }
+        for (int id = 0; id < store.size(); id++) {
+            if (store.contains(id)) {
+                update(id);
+            }
+        }
+        store.addListener(this);
+    }
+
+    private void loadThresholds(File file) {
+        try (Scanner read = new Scanner(file)) {
+            while (read.hasNextLine()) {
+                String line = read.nextLine().trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                try {
+                    int itemLow = Integer.parseInt(parts[1]);
+                    int itemOver = Integer.parseInt(parts[2]);
+                    int itemMargin = parts.length > 3 ? Integer.parseInt(parts[3]) : DEFAULT_MARGIN;
+                    if (parts[0].equals("*")) {
+                        defaultLow = itemLow;
+                        defaultOver = itemOver;
+                        defaultMargin = itemMargin;
+                    } else {
+                        int id = store.indexOf(parts[0]);
+                        if (id >= 0) {
+                            //statuses are worked out once the whole file is read
+                            Page page = page(id);
+                            int slot = id & (PAGE_SIZE - 1);
+                            synchronized (locks[id % STRIPES]) {
+                                page.low[slot] = itemLow;
+                                page.over[slot] = itemOver;
+                                page.margin[slot] = itemMargin;
+                            }
+                        }
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    //the line is skipped, the rest of the file still applies
+                    Metrics.error("alerts", new IllegalArgumentException("Bad alert threshold line: " + line, e));
+                }
+            }
+        } catch (FileNotFoundException e) {
+            Metrics.error("alerts", e);
+        }
+    }
+
+    /**
+     * Sets the thresholds of one item and re-checks its status.
+     */
+    public void setThresholds(int id, int itemLow, int itemOver, int itemMargin) {
+        Page page = page(id);
+        int slot = id & (PAGE_SIZE - 1);
+        synchronized (locks[id % STRIPES]) {
+            page.low[slot] = itemLow;
+            page.over[slot] = itemOver;
+            page.margin[slot] = itemMargin;
+        }
+        update(id);
+    }
+
+    public void addListener(AlertListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(AlertListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Current status of an item: {@link #NORMAL}, {@link #LOW} or {@link #OVER}.
+     * A plain array read, cheap enough to call while painting.
+     */
+    public int getStatus(int id) {
+        Page[] current = pages;
+        return id >> PAGE_BITS < current.length ? current[id >> PAGE_BITS].status[id & (PAGE_SIZE - 1)] : NORMAL;
+    }
+
+    /**
+     * Ids of the items that are low on stock right now.
+     */
+    public Set<Integer> getLowItems() {
+        return Collections.unmodifiableSet(lowItems);
+    }
+
+    /**
+     * Ids of the items that are over stock right now.
+     */
+    public Set<Integer> getOverItems() {
+        return Collections.unmodifiableSet(overItems);
+    }
+
+    @Override
+    public void quantityChanged(int id, int oldQuantity, int newQuantity) {
+        update(id);
+    }
+
+    @Override
+    public void itemAdded(int id) {
+        update(id);
+    }
+
+    /**
+     * Re-checks an item under its stripe lock, then tells the listeners if its status moved.
+     */
+    private void update(int id) {
+        Page page = page(id);
+        int[] change;
+        synchronized (locks[id % STRIPES]) {
+            change = evaluate(id, page, id & (PAGE_SIZE - 1));
+        }
+        if (change != null) {
+            for (AlertListener listener : listeners) {
+                listener.statusChanged(id, change[0], change[1], change[2]);
+            }
+        }
+    }
+
+    /**
+     * Works out the status of an item from its current quantity and records it if it moved.
+     * The quantity is read again here, so changes reported out of order still end on the right status.
+     *
+     * @return old status, new status and quantity if the status moved, otherwise null
+     */
+    private int[] evaluate(int id, Page page, int slot) {
+        int quantity = store.getQuantity(id);
+        int itemLow = page.low[slot] < 0 ? defaultLow : page.low[slot];
+        int itemOver = page.over[slot] < 0 ? defaultOver : page.over[slot];
+        int itemMargin = page.margin[slot] < 0 ? defaultMargin : page.margin[slot];
+        int old = page.status[slot];
+        int next;
+        if (quantity <= itemLow) {
+            next = LOW;
+        } else if (quantity >= itemOver) {
+            next = OVER;
+        } else if (old == LOW && quantity <= itemLow + itemMargin) {
+            next = LOW; //not far enough above the threshold yet
+        } else if (old == OVER && quantity >= itemOver - itemMargin) {
+            next = OVER;
+        } else {
+            next = NORMAL;
+        }
+        if (next == old) {
+            return null;
+        }
+        page.status[slot] = (byte) next;
+        if (next == LOW) {
+            lowItems.add(id);
+        } else {
+            lowItems.remove(id);
+        }
+        if (next == OVER) {
+            overItems.add(id);
+        } else {
+            overItems.remove(id);
+        }
+        return new int[] {old, next, quantity};
+    }
+
+    /**
+     * The page holding an item, adding pages up to it the first time it is seen.
+     */
+    private Page page(int id) {
+        Page[] current = pages;
+        if (id >> PAGE_BITS < current.length) {
+            return current[id >> PAGE_BITS];
+        }
+        synchronized (this) {
+            current = pages;
+            if (id >> PAGE_BITS >= current.length) {
+                Page[] grown = Arrays.copyOf(current, (id >> PAGE_BITS) + 1);
+                for (int p = current.length; p < grown.length; p++) {
+                    grown[p] = new Page();
+                }
+                pages = grown;
+                current = grown;
+            }
+            return current[id >> PAGE_BITS];
+        }
+    }
+}
@@ -0,0 +1,587 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The {@code StockService} class is the single place where orders, deliveries and manual
+ * edits change the inventory. Each change is:
+ * <ol>
+ *   <li>applied to the in-memory {@code InventoryStore} (orders with the atomic stock check),</li>
+ *   <li>written to the {@code InventoryWal} and forced to disk,</li>
+ *   <li>appended to the order or delivery journal.</li>
+ * </ol>
+ * Once a change is in the log it stands: if its journal write then fails, the records are
+ * kept and appended again by the next checkpoint, which does not truncate the log until
+ * they are in the journal.
+ * The inventory snapshot is only written by checkpoints, which copy the changed slots to
+ * {@code inventory.bin}, force it and truncate the log. Checkpoints run periodically, when
+ * the log gets long and on shutdown.
+ *
+ * <p>Changes hold a shared lock while they apply, log and journal, and a checkpoint holds it
+ * exclusively, so a checkpoint never writes a change to the snapshot that is not yet in
+ * the log, and never truncates a record from the log before it is in its journal.
+ * Changes never block each other.
+ */
+public class StockService {
+
+    /**
+     * Run a checkpoint once this many changes have been logged.
+     */
+    private static final int CHECKPOINT_RECORDS = 10_000;
+
+    private static final Metrics.Timer checkpoints = Metrics.timer("checkpoint");
+    private static final Metrics.Counter snapshotBytes = Metrics.counter("snapshot.bytesWritten");
+
+    private final InventoryStore store;
+    private final InventorySnapshot snapshot;
+    private final InventoryWal wal;
+    private final OrderJournal orderLog;
+    private final OrderJournal deliveryLog;
+
+    /**
+     * Shared by changes, exclusive for checkpoints.
+     */
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    /**
+     * Items changed since the last checkpoint.
+     */
+    private final BitSet dirty = new BitSet();
+
+    private ScheduledExecutorService checkpointer;
+
+    /**
+     * Where checkpoints archive the log before truncating it, null to just truncate.
+     */
+    private volatile InventoryEvents events;
+
+    /**
+     * Transfer records replayed by the last {@link #recover}, for the location set to finish.
+     */
+    private final ArrayList<InventoryWal.Record> recoveredTransfers = new ArrayList<>();
+
+    /**
+     * Set by {@link #recover} when the log holds transfer records, until the location set has
+     * recorded what became of them. Checkpoints are skipped meanwhile, so the log keeps them.
+     */
+    private volatile boolean transfersPending;
+
+    /**
+     * Journal records of logged changes whose journal write failed, for the next checkpoint
+     * to append before it truncates the log.
+     */
+    private final ArrayList<String> unjournaledOrders = new ArrayList<>();
+    private final ArrayList<String> unjournaledDeliveries = new ArrayList<>();
+
+    public StockService(InventoryStore store, InventorySnapshot snapshot, InventoryWal wal,
+                        OrderJournal orderLog, OrderJournal deliveryLog) {
+        this.store = store;
+        this.snapshot = snapshot;
+        this.wal = wal;
+        this.orderLog = orderLog;
+        this.deliveryLog = deliveryLog;
+    }
+
+    public InventoryStore getStore() {
+        return store;
+    }
+
+    /**
+     * Keeps the full history of changes: from now on each checkpoint appends the logged
+     * changes to {@code events} before truncating the log.
+     */
+    public void setEvents(InventoryEvents events) {
+        this.events = events;
+    }
+
+    /**
+     * Places an order if there is enough stock.
+     *
+     * @return the saved order, or null if there was not enough stock
+     * @throws IllegalArgumentException if there is no item with that name
+     * @throws IOException if the change could not be logged; the stock is put back. A failed
+     *                     journal write is not thrown, as the order stands once it is logged
+     */
+    public Order placeOrder(String itemName, int quantity) throws IOException {
+        List<Order> orders = placeOrders(new int[] {itemId(itemName)}, new int[] {quantity}, 1, null);
+        return orders.isEmpty() ? null : orders.get(0);
+    }
+
+    /**
+     * Places a batch of orders, e.g. one batch of a bulk import. Orders for more than is in
+     * stock are skipped. The log and the order journal are each forced once for the batch.
+     *
+     * @param itemIds     item of each order
+     * @param quantities  quantity of each order
+     * @param count       number of orders in the arrays
+     * @param rejected    if not null, set to true for each order that was short of stock
+     * @return the orders that were placed
+     */
+    public List<Order> placeOrders(int[] itemIds, int[] quantities, int count, boolean[] rejected)
+            throws IOException {
+        ArrayList<Order> orders = new ArrayList<>(count);
+        int[] kinds = new int[count];
+        int[] deltas = new int[count];
+        int[] recordIds = new int[count];
+        int[] after = new int[count];
+        int[] logged = new int[count];
+        int n = 0;
+        long now = System.currentTimeMillis();
+
+        checkpointLock.readLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                int id = itemIds[i];
+                if (!store.tryRemove(id, quantities[i])) {
+                    if (rejected != null) {
+                        rejected[i] = true;
+                    }
+                    continue;
+                }
+                Order order = new Order(store.getName(id), quantities[i]);
+                orders.add(order);
+                kinds[n] = InventoryWal.ORDER;
+                logged[n] = id;
+                deltas[n] = -quantities[i];
+                recordIds[n] = order.getId();
+                after[n] = store.getQuantity(id);
+                n++;
+            }
+            try {
+                wal.append(kinds, logged, deltas, recordIds, after, now, n);
+            } catch (IOException e) {
+                //not logged, so it didn't happen - put the stock back
+                for (int i = 0; i < n; i++) {
+                    store.addQuantity(logged[i], -deltas[i]);
+                }
+                throw e;
+            }
+            markDirty(logged, n);
+            journal(orderLog, toRecords(orders), unjournaledOrders);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfLogIsLong();
+        return orders;
+    }
+
+    /**
+     * Places a basket order: one order per line, all placed or, if any line is short of
+     * stock, none.
+     *
+     * @return the order of each line, or null if there was not enough stock for every line
+     * @throws IOException if the basket could not be logged; the stock is put back
+     */
+    public List<Order> placeBasket(int[] itemIds, int[] quantities) throws IOException {
+        return placeBaskets(List.of(itemIds), List.of(quantities)).get(0);
+    }
+
+    /**
+     * Places several basket orders, each one all or nothing, with one forced write to the
+     * log and one to the order journal for all of them.
+     *
+     * @param itemIds     item of each line, per basket
+     * @param quantities  quantity of each line, per basket
+     * @return the orders of each basket, null for a basket that was short of stock
+     */
+    public List<List<Order>> placeBaskets(List<int[]> itemIds, List<int[]> quantities) throws IOException {
+        int lines = 0;
+        for (int[] basket : itemIds) {
+            lines += basket.length;
+        }
+        ArrayList<List<Order>> baskets = new ArrayList<>(itemIds.size());
+        ArrayList<Order> orders = new ArrayList<>(lines);
+        int[] kinds = new int[lines];
+        int[] deltas = new int[lines];
+        int[] recordIds = new int[lines];
+        int[] after = new int[lines];
+        int[] logged = new int[lines];
+        int n = 0;
+        long now = System.currentTimeMillis();
+
+        checkpointLock.readLock().lock();
+        try {
+            for (int b = 0; b < itemIds.size(); b++) {
+                int[] ids = itemIds.get(b);
+                int[] amounts = quantities.get(b);
+                if (ids.length == 0 || store.tryRemoveAll(ids, amounts) >= 0) {
+                    baskets.add(null); //short lines were rolled back by the store
+                    continue;
+                }
+                ArrayList<Order> basket = new ArrayList<>(ids.length);
+                for (int i = 0; i < ids.length; i++) {
+                    Order order = new Order(store.getName(ids[i]), amounts[i]);
+                    basket.add(order);
+                    kinds[n] = i < ids.length - 1 ? InventoryWal.BASKET : InventoryWal.ORDER;
+                    logged[n] = ids[i];
+                    deltas[n] = -amounts[i];
+                    recordIds[n] = order.getId();
+                    after[n] = store.getQuantity(ids[i]);
+                    n++;
+                }
+                baskets.add(basket);
+                orders.addAll(basket);
+            }
+            try {
+                wal.append(kinds, logged, deltas, recordIds, after, now, n);
+            } catch (IOException e) {
+                for (int i = 0; i < n; i++) {
+                    store.addQuantity(logged[i], -deltas[i]);
+                }
+                throw e;
+            }
+            markDirty(logged, n);
+            journal(orderLog, toRecords(orders), unjournaledOrders);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfLogIsLong();
+        return baskets;
+    }
+
+    /**
+     * Receives a delivery, adding the stock.
+     *
+     * @throws IllegalArgumentException if there is no item with that name, or if the stock
+     *                                  would be more than an {@code int} can hold
+     */
+    public Delivery receiveDelivery(String itemName, int quantity) throws IOException {
+        int id = itemId(itemName);
+        boolean[] tooMuch = new boolean[1];
+        List<Delivery> deliveries = receiveDeliveries(new int[] {id}, new int[] {quantity}, 1, tooMuch);
+        if (tooMuch[0]) {
+            throw new IllegalArgumentException("Stock of " + itemName + " would overflow");
+        }
+        return deliveries.get(0);
+    }
+
+    /**
+     * Receives a batch of deliveries with one forced write to the log and to the delivery journal.
+     * Deliveries that would take an item's stock past {@code Integer.MAX_VALUE} are skipped.
+     *
+     * @param rejected  if not null, set to true for each delivery that would have overflowed
+     * @return the deliveries that were received
+     */
+    public List<Delivery> receiveDeliveries(int[] itemIds, int[] quantities, int count, boolean[] rejected)
+            throws IOException {
+        ArrayList<Delivery> deliveries = new ArrayList<>(count);
+        int[] kinds = new int[count];
+        int[] deltas = new int[count];
+        int[] recordIds = new int[count];
+        int[] after = new int[count];
+        int[] logged = new int[count];
+        int n = 0;
+        long now = System.currentTimeMillis();
+
+        checkpointLock.readLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                int id = itemIds[i];
+                if (!store.tryAdd(id, quantities[i])) {
+                    if (rejected != null) {
+                        rejected[i] = true;
+                    }
+                    continue;
+                }
+                Delivery delivery = new Delivery(store.getName(id), quantities[i]);
+                deliveries.add(delivery);
+                kinds[n] = InventoryWal.DELIVERY;
+                logged[n] = id;
+                deltas[n] = quantities[i];
+                recordIds[n] = delivery.getId();
+                after[n] = store.getQuantity(id);
+                n++;
+            }
+            try {
+                wal.append(kinds, logged, deltas, recordIds, after, now, n);
+            } catch (IOException e) {
+                for (int i = 0; i < n; i++) {
+                    store.addQuantity(logged[i], -deltas[i]);
+                }
+                throw e;
+            }
+            markDirty(logged, n);
+            journal(deliveryLog, toRecords(deliveries), unjournaledDeliveries);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfLogIsLong();
+        return deliveries;
+    }
+
+    /**
+     * Sets the quantity of an item by hand, e.g. after a stock-take.
+     */
+    public void setQuantity(int itemId, int quantity) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            int old = store.setQuantity(itemId, quantity);
+            try {
+                wal.append(InventoryWal.EDIT, itemId, quantity - old, 0, quantity, System.currentTimeMillis());
+            } catch (IOException e) {
+                store.addQuantity(itemId, old - quantity);
+                throw e;
+            }
+            markDirty(new int[] {itemId}, 1);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        checkpointIfLogIsLong();
+    }
+
+    /**
+     * Takes stock out of this location as one half of a transfer to another location.
+     *
+     * @return false, changing nothing, if there is not enough stock
+     */
+    public boolean transferOut(int itemId, int quantity, int transferId) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            if (!store.tryRemove(itemId, quantity)) {
+                return false;
+            }
+            logTransfer(itemId, -quantity, transferId);
+            return true;
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds stock to this location as the other half of a transfer, or to undo a transfer out.
+     */
+    public void transferIn(int itemId, int quantity, int transferId) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            store.addQuantity(itemId, quantity);
+            logTransfer(itemId, quantity, transferId);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    private void logTransfer(int itemId, int delta, int transferId) throws IOException {
+        try {
+            wal.append(InventoryWal.TRANSFER, itemId, delta, transferId, store.getQuantity(itemId),
+                    System.currentTimeMillis());
+        } catch (IOException e) {
+            store.addQuantity(itemId, -delta);
+            throw e;
+        }
+        markDirty(new int[] {itemId}, 1);
+    }
+
+    /**
+     * Stops checkpoints of this location until {@link #resumeCheckpoints()}, so the log keeps
+     * every record written in between. A transfer holds this on both locations until it is
+     * recorded as done, so after a crash both halves are still in the logs.
+     * Checkpoints already running are waited for. Calls may be nested.
+     */
+    public void holdCheckpoints() {
+        checkpointLock.readLock().lock();
+    }
+
+    public void resumeCheckpoints() {
+        checkpointLock.readLock().unlock();
+    }
+
+    /**
+     * Transfer records replayed by the last call to {@link #recover}.
+     */
+    public List<InventoryWal.Record> getRecoveredTransfers() {
+        return recoveredTransfers;
+    }
+
+    /**
+     * Called once every recovered transfer is in {@code transfers.log}: lets checkpoints
+     * truncate the log again and runs one.
+     */
+    public void transfersFinished() throws IOException {
+        transfersPending = false;
+        recoveredTransfers.clear();
+        checkpoint();
+    }
+
+    /**
+     * Replays the changes logged since the last checkpoint on top of the loaded snapshot,
+     * re-appends orders and deliveries that were logged but never reached their journal,
+     * and then checkpoints. Must run after the snapshot and the journal ids are loaded.
+     * If the log holds transfer records, the checkpoint (and any other) waits for
+     * {@link #transfersFinished}, so a crash before the transfers are settled loses neither half.
+     * Changes the snapshot already has (its slot's sequence number is at or past the record,
+     * because a checkpoint died before truncating the log) are not applied again.
+     *
+     * @param lastOrderId     last order id found in the order journal
+     * @param lastDeliveryId  last delivery id found in the delivery journal
+     * @return number of changes replayed
+     */
+    public int recover(int lastOrderId, int lastDeliveryId) throws IOException {
+        List<InventoryWal.Record> tail = wal.readTail();
+        ArrayList<String> missingOrders = new ArrayList<>();
+        ArrayList<String> missingDeliveries = new ArrayList<>();
+        int maxOrderId = lastOrderId;
+        int maxDeliveryId = lastDeliveryId;
+        recoveredTransfers.clear();
+        if (tail.isEmpty()) {
+            wal.startAfter(snapshot.getNewestSeq()); //a new log for an old snapshot
+        }
+
+        for (InventoryWal.Record record : tail) {
+            if (!store.contains(record.itemId)) {
+                continue;
+            }
+            if (record.seq > snapshot.coveredSeq(record.itemId)) {
+                store.addQuantity(record.itemId, record.delta);
+                markDirty(new int[] {record.itemId}, 1);
+            }
+            String itemName = store.getName(record.itemId);
+            boolean isOrder = record.kind == InventoryWal.ORDER || record.kind == InventoryWal.BASKET;
+            if (isOrder && record.recordId > lastOrderId) {
+                missingOrders.add(new Order(record.recordId, itemName, -record.delta, record.timestamp).toString());
+                maxOrderId = Math.max(maxOrderId, record.recordId);
+            } else if (record.kind == InventoryWal.DELIVERY && record.recordId > lastDeliveryId) {
+                missingDeliveries.add(new Delivery(record.recordId, itemName, record.delta, record.timestamp).toString());
+                maxDeliveryId = Math.max(maxDeliveryId, record.recordId);
+            } else if (record.kind == InventoryWal.TRANSFER) {
+                recoveredTransfers.add(record);
+            }
+        }
+        orderLog.appendAll(missingOrders);
+        deliveryLog.appendAll(missingDeliveries);
+        if (maxOrderId > lastOrderId) {
+            Order.setNextId(maxOrderId + 1);
+        }
+        if (maxDeliveryId > lastDeliveryId) {
+            Delivery.setNextId(maxDeliveryId + 1);
+        }
+        transfersPending = !recoveredTransfers.isEmpty();
+        checkpoint();
+        return tail.size();
+    }
+
+    /**
+     * Writes every item changed since the last checkpoint to the snapshot, forces it
+     * and truncates the log. Does nothing while recovered transfers are pending. Journal
+     * records whose write failed are appended first; if that fails again the checkpoint
+     * is given up, keeping the log.
+     */
+    public void checkpoint() throws IOException {
+        if (transfersPending) {
+            return;
+        }
+        long start = System.nanoTime();
+        checkpointLock.writeLock().lock();
+        try {
+            rejournal(orderLog, unjournaledOrders);
+            rejournal(deliveryLog, unjournaledDeliveries);
+            long covered = wal.getLastSeq();
+            synchronized (dirty) {
+                for (int id = dirty.nextSetBit(0); id >= 0; id = dirty.nextSetBit(id + 1)) {
+                    snapshot.writeQuantity(id, store.getQuantity(id), covered);
+                }
+                snapshotBytes.add((long) dirty.cardinality() * InventorySnapshot.RECORD_SIZE);
+                dirty.clear();
+            }
+            snapshot.force();
+            InventoryEvents archive = events;
+            if (archive != null) {
+                archive.archive(wal.readTail(), store);
+            }
+            wal.checkpoint();
+        } finally {
+            checkpointLock.writeLock().unlock();
+            checkpoints.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts checkpointing in the background every {@code seconds}, and once more when the program exits.
+     */
+    public synchronized void startCheckpoints(long seconds) {
+        if (checkpointer != null) {
+            return;
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpointQuietly, seconds, seconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::checkpointQuietly, "checkpoint-on-exit"));
+    }
+
+    private void checkpointIfLogIsLong() {
+        if (wal.getRecordsSinceCheckpoint() >= CHECKPOINT_RECORDS) {
+            ScheduledExecutorService background;
+            synchronized (this) {
+                background = checkpointer;
+            }
+            if (background != null) {
+                background.execute(this::checkpointQuietly);
+            } else {
+                checkpointQuietly();
+            }
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            if (wal.getRecordsSinceCheckpoint() > 0) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            Metrics.error("checkpoint", e);
+        }
+    }
+
+    /**
+     * Appends the records of logged changes to their journal. A failure is reported but does
+     * not undo the changes; the records are kept for the next checkpoint.
+     */
+    private static void journal(OrderJournal journal, List<String> records, List<String> unjournaled) {
+        try {
+            journal.appendAll(records);
+        } catch (IOException e) {
+            Metrics.error("journal", e);
+            synchronized (unjournaled) {
+                unjournaled.addAll(records);
+            }
+        }
+    }
+
+    private static void rejournal(OrderJournal journal, List<String> unjournaled) throws IOException {
+        synchronized (unjournaled) {
+            journal.appendAll(unjournaled);
+            unjournaled.clear();
+        }
+    }
+
+    private void markDirty(int[] ids, int count) {
+        synchronized (dirty) {
+            for (int i = 0; i < count; i++) {
+                dirty.set(ids[i]);
+            }
+        }
+    }
+
+    private int itemId(String itemName) {
+        int id = store.indexOf(itemName);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown item: " + itemName);
+        }
+        return id;
+    }
+
+    private static ArrayList<String> toRecords(List<?> entries) {
+        ArrayList<String> records = new ArrayList<>(entries.size());
+        for (Object entry : entries) {
+            records.add(entry.toString());
+        }
+        return records;
+    }
+}